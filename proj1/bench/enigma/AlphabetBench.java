@@ -0,0 +1,111 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of looking characters up in an Alphabet, one at a time
+ *  and in bulk, for alphabets from 26 to 65536 characters, compared with
+ *  searching the alphabet string.  Apart from the upper-case letters, the
+ *  alphabets consist of supplementary characters spread evenly over
+ *  planes 1-16.
+ *  @author rw
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlphabetBench {
+
+    /** Number of lookups per benchmark invocation. */
+    static final int BATCH = 1024;
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256", "4096", "65536" })
+    public int size;
+
+    /** The characters of the alphabet. */
+    private String _chars;
+
+    /** The alphabet under test. */
+    private Alphabet _alphabet;
+
+    /** Characters (code points) to look up. */
+    private final int[] _codePoints = new int[BATCH];
+
+    /** The same characters, as a string. */
+    private String _text;
+
+    /** Indices computed by toInts. */
+    private final int[] _indices = new int[2 * BATCH];
+
+    /** Set up an alphabet of SIZE characters and random characters from
+     *  it. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        if (size == BenchUtils.UPPER.length()) {
+            _chars = BenchUtils.UPPER;
+        } else {
+            StringBuilder chars = new StringBuilder();
+            int stride = (Character.MAX_CODE_POINT - 0x10000) / size;
+            for (int i = 0; i < size; i += 1) {
+                chars.appendCodePoint(0x10000 + i * stride);
+            }
+            _chars = chars.toString();
+        }
+        _alphabet = new Alphabet(_chars);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < BATCH; i += 1) {
+            _codePoints[i] = _alphabet.toCodePoint(random.nextInt(size));
+            text.appendCodePoint(_codePoints[i]);
+        }
+        _text = text.toString();
+    }
+
+    /** Look up BATCH characters one at a time. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int toInt() {
+        int sum = 0;
+        for (int c : _codePoints) {
+            sum += _alphabet.toInt(c);
+        }
+        return sum;
+    }
+
+    /** Look up the BATCH characters of a string in one call. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int[] toInts() {
+        _alphabet.toInts(_text, _indices);
+        return _indices;
+    }
+
+    /** Look up BATCH characters by searching the alphabet string, as
+     *  Alphabet once did. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int scan() {
+        int sum = 0;
+        for (int c : _codePoints) {
+            sum += _chars.indexOf(c);
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,107 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of converting one short text under many keys, as a key
+ *  search does: Machine.convertBatch over a MachineStateBatch against
+ *  restoring one machine to each key in turn and converting the text.
+ *  The machine is that of BenchUtils.SETTINGS; the keys are random
+ *  positions of its rotors.  Times are per character of the text, for
+ *  all the keys together (JMH cannot scale by the lanes parameter).
+ *  @author rw
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBench {
+
+    /** Number of characters in the text. */
+    static final int LENGTH = 32;
+
+    /** Number of keys (lanes). */
+    @Param({ "26", "676", "17576" })
+    public int lanes;
+
+    /** The machine under test. */
+    private Machine _machine;
+
+    /** The keys, as settings. */
+    private int[][] _keys;
+
+    /** The keys, as a batch. */
+    private MachineStateBatch _batch;
+
+    /** The text. */
+    private int[] _text;
+
+    /** Output of batch. */
+    private int[][] _out;
+
+    /** Buffer for sequential. */
+    private int[] _buffer;
+
+    /** Set up the machine, keys and text. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(lanes);
+        _machine = BenchUtils.navalMachine();
+        int slots = _machine.numRotors();
+        _keys = new int[lanes][slots];
+        _batch = new MachineStateBatch(slots, lanes);
+        for (int l = 0; l < lanes; l += 1) {
+            for (int k = 1; k < slots; k += 1) {
+                _keys[l][k] = random.nextInt(26);
+            }
+        }
+        _text = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i += 1) {
+            _text[i] = random.nextInt(26);
+        }
+        _out = new int[lanes][LENGTH];
+        _buffer = new int[LENGTH];
+    }
+
+    /** Convert the text under every key with convertBatch. */
+    @Benchmark
+    @OperationsPerInvocation(LENGTH)
+    public int[][] batch() {
+        for (int l = 0; l < lanes; l += 1) {
+            _batch.set(l, _keys[l]);
+        }
+        _machine.convertBatch(_text, _batch, _out);
+        return _out;
+    }
+
+    /** Convert the text under every key by restoring the machine to each
+     *  in turn. */
+    @Benchmark
+    @OperationsPerInvocation(LENGTH)
+    public int sequential() {
+        int sum = 0;
+        for (int[] key : _keys) {
+            _machine.restore(key);
+            System.arraycopy(_text, 0, _buffer, 0, LENGTH);
+            _machine.convert(_buffer, 0, LENGTH);
+            sum += _buffer[LENGTH - 1];
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,196 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/** Shared set-up for the benchmarks.
+ *  @author rw
+ */
+class BenchUtils {
+
+    /** The rotors of the default configuration: name, description (as in
+     *  the configuration file) and cycles. */
+    static final String[][] NAVAL = {
+        { "I", "MQ", "(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)" },
+        { "II", "ME", "(FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)" },
+        { "III", "MV", "(ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)" },
+        { "IV", "MJ", "(AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)" },
+        { "V", "MZ", "(AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)" },
+        { "VI", "MZM", "(AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)" },
+        { "VII", "MZM", "(ANOUPFRIMBZTLWKSVEGCJYDHXQ)" },
+        { "VIII", "MZM", "(AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)" },
+        { "Beta", "N", "(ALBEVFCYODJWUGNMQTZSKPR) (HIX)" },
+        { "Gamma", "N", "(AFNIRLBSQWVXGUZDKMTPCOYJHE)" },
+        { "B", "R", "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) "
+          + "(RX) (SZ) (TV)" },
+        { "C", "R", "(AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW) "
+          + "(QZ) (SX) (UY)" },
+    };
+
+    /** The upper-case alphabet, as a string. */
+    static final String UPPER = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    /** The settings line used by the benchmarks with the NAVAL rotors. */
+    static final String SETTINGS = "* B BETA III IV I AXLE (HQ) (EX) (IP)";
+
+    /** Return a 5-slot, 3-pawl machine with the rotors of the default
+     *  configuration, set up according to SETTINGS. */
+    static Machine navalMachine() {
+        Machine machine = machine(UPPER, NAVAL, 5, 3);
+        machine.parseSettings(SETTINGS);
+        return machine;
+    }
+
+    /** Return a machine with alphabet CHARS, NUMROTORS slots, PAWLS
+     *  pawls and the rotors described by ROTORS, in the format of
+     *  NAVAL. */
+    static Machine machine(String chars, String[][] rotors, int numRotors,
+                           int pawls) {
+        Alphabet alpha = new Alphabet(chars);
+        ArrayList<Rotor> all = new ArrayList<>();
+        for (String[] desc : rotors) {
+            Permutation perm = new Permutation(desc[2], alpha);
+            switch (desc[1].charAt(0)) {
+            case 'M':
+                all.add(new MovingRotor(desc[0], perm, desc[1].substring(1)));
+                break;
+            case 'N':
+                all.add(new FixedRotor(desc[0], perm, ""));
+                break;
+            default:
+                all.add(new Reflector(desc[0], perm, ""));
+                break;
+            }
+        }
+        return new Machine(alpha, numRotors, pawls, all);
+    }
+
+    /** Return the text of a configuration file for a machine with alphabet
+     *  CHARS, NUMROTORS slots, PAWLS pawls and the rotors described by
+     *  ROTORS, in the format of NAVAL. */
+    static String config(String chars, String[][] rotors, int numRotors,
+                         int pawls) {
+        StringBuilder text = new StringBuilder(chars).append('\n');
+        text.append(numRotors).append(' ').append(pawls).append('\n');
+        for (String[] desc : rotors) {
+            text.append(' ').append(desc[0]).append(' ').append(desc[1])
+                .append(' ').append(desc[2]).append('\n');
+        }
+        return text.toString();
+    }
+
+    /** Return an alphabet of SIZE characters: the upper-case letters when
+     *  SIZE is 26, and otherwise consecutive characters from U+0100 on. */
+    static String alphabet(int size) {
+        if (size == UPPER.length()) {
+            return UPPER;
+        }
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < size; i += 1) {
+            chars.append((char) ('\u0100' + i));
+        }
+        return chars.toString();
+    }
+
+    /** Return descriptions, in the format of NAVAL, of random rotors over
+     *  the alphabet CHARS for a machine with NUMROTORS slots and PAWLS
+     *  pawls: a reflector named R, fixed rotors named F0, F1, ..., and
+     *  two more moving rotors than pawls, named M0, M1, ..., each with
+     *  one notch.  Uses RANDOM. */
+    static String[][] randomRotors(String chars, int numRotors, int pawls,
+                                   Random random) {
+        int fixed = numRotors - 1 - pawls;
+        String[][] rotors = new String[1 + fixed + pawls + 2][];
+        rotors[0] = new String[] { "R", "R", reflector(chars, random) };
+        for (int i = 0; i < fixed; i += 1) {
+            rotors[1 + i] = new String[] {
+                "F" + i, "N", cycles(chars, random)
+            };
+        }
+        for (int i = 0; i < pawls + 2; i += 1) {
+            char notch = chars.charAt(random.nextInt(chars.length()));
+            rotors[1 + fixed + i] = new String[] {
+                "M" + i, "M" + notch, cycles(chars, random)
+            };
+        }
+        return rotors;
+    }
+
+    /** Return a settings line for a machine with NUMROTORS slots and PAWLS
+     *  pawls using the rotors of randomRotors and alphabet CHARS, with a
+     *  plugboard of up to 10 pairs.  Uses RANDOM. */
+    static String randomSettings(String chars, int numRotors, int pawls,
+                                 Random random) {
+        StringBuilder line = new StringBuilder("* R");
+        for (int i = 0; i < numRotors - 1 - pawls; i += 1) {
+            line.append(" F").append(i);
+        }
+        for (int i = 0; i < pawls; i += 1) {
+            line.append(" M").append(i);
+        }
+        line.append(' ');
+        for (int i = 1; i < numRotors; i += 1) {
+            line.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        char[] shuffled = shuffle(chars, random);
+        for (int i = 0; i + 1 < Math.min(20, shuffled.length); i += 2) {
+            line.append(" (").append(shuffled[i]).append(shuffled[i + 1])
+                .append(')');
+        }
+        return line.toString();
+    }
+
+    /** Return the characters of CHARS in an order drawn from RANDOM. */
+    static char[] shuffle(String chars, Random random) {
+        char[] result = chars.toCharArray();
+        for (int i = result.length - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            char t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Return a random permutation of CHARS, drawn from RANDOM, in cycle
+     *  notation. */
+    static String cycles(String chars, Random random) {
+        char[] image = shuffle(chars, random);
+        boolean[] done = new boolean[chars.length()];
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < chars.length(); i += 1) {
+            if (!done[i]) {
+                result.append('(');
+                for (int k = i; !done[k]; k = chars.indexOf(image[k])) {
+                    result.append(chars.charAt(k));
+                    done[k] = true;
+                }
+                result.append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return a random pairing of the characters of CHARS, drawn from
+     *  RANDOM, in cycle notation. */
+    static String reflector(String chars, Random random) {
+        char[] shuffled = shuffle(chars, random);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i + 1 < shuffled.length; i += 2) {
+            result.append('(').append(shuffled[i]).append(shuffled[i + 1])
+                .append(')');
+        }
+        return result.toString();
+    }
+
+    /** Return a message of LENGTH random characters from CHARS drawn from
+     *  RANDOM. */
+    static char[] randomMessage(String chars, int length, Random random) {
+        char[] msg = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            msg[i] = chars.charAt(random.nextInt(chars.length()));
+        }
+        return msg;
+    }
+
+}
@@ -0,0 +1,107 @@
+package enigma;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/** Timing of the Bombe on the rotors of BenchUtils.SETTINGS (with a
+ *  ten-pair plugboard) with the rotor order known, against the estimated
+ *  time for KeySearch to find the same key by trying every ten-pair
+ *  plugboard at every position.  The single optional argument is the
+ *  length of the crib (default 30).
+ *  @author rw
+ */
+class BombeBench {
+
+    /** The key of the message. */
+    private static final String KEY =
+        "* B BETA III IV I AXLE (HQ) (EX) (IP) (AB) (CD) (FG) (JK) (LM) "
+        + "(NO) (RS)";
+
+    /** The plaintext of the message. */
+    private static final String PLAIN =
+        "WETTERVORHERSAGEBISKAYAREGENKEINEFEINDBEWEGUNGAUFKLAERUNGERFOLGT";
+
+    /** The number of ways of choosing 10 disjoint pairs of 26 letters:
+     *  26! / (6! 10! 2^10). */
+    private static final double PLUGBOARDS = 150_738_274_937_250.0;
+
+    /** Run the test, as described in the class comment, with crib length
+     *  ARGS[0], if present. */
+    public static void main(String... args) {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        Machine machine = BenchUtils.navalMachine();
+        machine.parseSettings(KEY);
+        int[] cipher = new int[PLAIN.length()];
+        machine.alphabet().toInts(machine.convert(PLAIN), cipher);
+        int[] crib = new int[length];
+        machine.alphabet().toInts(PLAIN.substring(0, length), crib);
+
+        Machine search = BenchUtils.navalMachine();
+        Rotor[] order = new Rotor[5];
+        String[] names = { "B", "BETA", "III", "IV", "I" };
+        for (int i = 0; i < names.length; i += 1) {
+            for (Rotor rotor : search.allRotors()) {
+                if (rotor.name().equalsIgnoreCase(names[i])) {
+                    order[i] = rotor;
+                }
+            }
+        }
+        List<Rotor[]> orders = Collections.singletonList(order);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        Bombe bombe = new Bombe(search, cipher, crib, 0);
+        for (int warm = 0; warm < 2; warm += 1) {
+            bombe.search(orders, pool);
+        }
+        List<Bombe.Stop> stops = bombe.search(orders, pool);
+        boolean found = false;
+        for (Bombe.Stop stop : stops) {
+            found |= stop.toString().startsWith("* B Beta III IV I AXLE");
+        }
+        System.out.printf("bombe:     %,d positions in %.2f s (%,.0f/s), "
+                          + "%d stops, key %s%n", bombe.tested(),
+                          bombe.tested() / bombe.rate(), bombe.rate(),
+                          stops.size(), found ? "found" : "NOT FOUND");
+
+        double rate = trialRate(machine, order, cipher, crib);
+        System.out.printf("trial:     %,.0f keys/s with the plugboard "
+                          + "known%n", rate);
+        System.out.printf("exhaustive plugboards: about %.1e years%n",
+                          bombe.tested() * PLUGBOARDS / rate
+                          / (365.25 * 24 * 3600));
+    }
+
+    /** Return the number of keys per second at which MACHINE, with the
+     *  rotors ORDER and the plugboard it has, can be tested (as KeySearch
+     *  tests them, on one thread) for converting CIPHER to CRIB. */
+    static double trialRate(Machine machine, Rotor[] order, int[] cipher,
+                            int[] crib) {
+        Machine fork = machine.fork();
+        fork.insertRotors(order);
+        int n = fork.alphabet().size();
+        int[] settings = new int[order.length];
+        long keys = 0, matches = 0;
+        long start = System.nanoTime();
+        for (int k = 0; k < n * n * n; k += 1) {
+            settings[2] = k / (n * n);
+            settings[3] = k / n % n;
+            settings[4] = k % n;
+            fork.restore(settings);
+            int i;
+            for (i = 0; i < crib.length; i += 1) {
+                if (fork.convert(cipher[i]) != crib[i]) {
+                    break;
+                }
+            }
+            matches += i == crib.length ? 1 : 0;
+            keys += 1;
+        }
+        double secs = (System.nanoTime() - start) * 1e-9;
+        if (matches == 0) {
+            System.out.println("trial: KEY NOT FOUND");
+        }
+        return keys / secs;
+    }
+
+}
@@ -0,0 +1,71 @@
+package enigma;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/** Timing of the ciphertext-only attack (HillClimb) on a message
+ *  encrypted with the rotors of BenchUtils.SETTINGS and a five-pair
+ *  plugboard, with the rotor order known.  Tetragrams are learned from
+ *  HillClimbTest.SAMPLE, from which the message is also taken, so this
+ *  measures speed (positions ranked and decryptions evaluated per
+ *  second) rather than how well the attack does on unseen text.  The
+ *  optional arguments are the number of candidates kept (default 100)
+ *  and of restarts per candidate (default 2).
+ *  @author rw
+ */
+class ClimbBench {
+
+    /** The key of the message. */
+    private static final String KEY =
+        "* B Beta III IV I AXLE (EX) (HQ) (IP) (KN) (SZ)";
+
+    /** Run the test, as described in the class comment, with ARGS[0]
+     *  candidates and ARGS[1] restarts, if present. */
+    public static void main(String... args) {
+        int keep = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int restarts = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        String sample = HillClimbTest.SAMPLE;
+        String plain = sample.substring(200, 500);
+        Machine machine = BenchUtils.navalMachine();
+        machine.parseSettings(KEY);
+        Alphabet alphabet = machine.alphabet();
+        int[] cipher = new int[plain.length()];
+        alphabet.toInts(machine.convert(plain), cipher);
+        int[] text = new int[sample.length()];
+        alphabet.toInts(sample, text);
+
+        Machine search = BenchUtils.navalMachine();
+        Rotor[] order = new Rotor[5];
+        String[] names = { "B", "Beta", "III", "IV", "I" };
+        for (int i = 0; i < names.length; i += 1) {
+            for (Rotor rotor : search.allRotors()) {
+                if (rotor.name().equals(names[i])) {
+                    order[i] = rotor;
+                }
+            }
+        }
+        List<Rotor[]> orders = Collections.singletonList(order);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        HillClimb attack = new HillClimb(search, cipher,
+                                         new Tetragrams(text, text.length,
+                                                        alphabet.size()));
+
+        List<HillClimb.Candidate> candidates =
+            attack.rank(orders, pool, keep);
+        System.out.printf("rank:  %,d positions in %.2f s (%,.0f/s)%n",
+                          attack.evaluations(),
+                          attack.evaluations() / attack.rate(),
+                          attack.rate());
+        HillClimb.Solution solution = attack.climb(candidates, pool,
+                                                   restarts);
+        System.out.printf("climb: %,d decryptions in %.2f s (%,.0f/s)%n",
+                          attack.evaluations(),
+                          attack.evaluations() / attack.rate(),
+                          attack.rate());
+        System.out.printf("key %s: %s%n",
+                          solution.toString().equals(KEY)
+                          ? "found" : "NOT FOUND", solution);
+    }
+
+}
@@ -0,0 +1,103 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of Machine's compiled conversion (Machine.setCompiled)
+ *  on the machine of BenchUtils.SETTINGS, whose three moving rotors step
+ *  through 16,900 positions.  The capacity parameter is the number of
+ *  positions whose tables may be cached: 0 for uncompiled conversion,
+ *  4096 for a hashed cache smaller than the stepping period, and 65536
+ *  for a dense table covering all of it.  Times are per character.
+ *  @author rw
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledBench {
+
+    /** Number of characters in each message. */
+    static final int LENGTH = 1024;
+
+    /** Number of positions cached (see the class comment). */
+    @Param({ "0", "4096", "65536" })
+    public int capacity;
+
+    /** The machine under test. */
+    private Machine _machine;
+
+    /** The settings of its rotors at the start of each message. */
+    private int[] _start;
+
+    /** A message, as indices. */
+    private int[] _message;
+
+    /** Buffer holding the message as it is converted. */
+    private int[] _buffer;
+
+    /** Set up the machine and a random message. */
+    @Setup
+    public void setUp() {
+        _machine = BenchUtils.navalMachine();
+        _machine.setCompiled(capacity);
+        _start = _machine.snapshot();
+        char[] chars =
+            BenchUtils.randomMessage(BenchUtils.UPPER, LENGTH, new Random(7));
+        _message = new int[LENGTH];
+        _machine.alphabet().toInts(new String(chars), _message);
+        _buffer = new int[LENGTH];
+    }
+
+    /** Convert the message again from the same starting positions, as for
+     *  a batch of messages sent under one key: every position has been
+     *  visited before. */
+    @Benchmark
+    @OperationsPerInvocation(LENGTH)
+    public int[] repeated() {
+        _machine.restore(_start);
+        System.arraycopy(_message, 0, _buffer, 0, LENGTH);
+        _machine.convert(_buffer, 0, LENGTH);
+        return _buffer;
+    }
+
+    /** Convert the message continuing from where the last conversion
+     *  stopped, as for one long message: positions recur only once per
+     *  stepping period. */
+    @Benchmark
+    @OperationsPerInvocation(LENGTH)
+    public int[] stream() {
+        System.arraycopy(_message, 0, _buffer, 0, LENGTH);
+        _machine.convert(_buffer, 0, LENGTH);
+        return _buffer;
+    }
+
+    /** Convert the message one character at a time from the same starting
+     *  positions. */
+    @Benchmark
+    @OperationsPerInvocation(LENGTH)
+    public int keystrokes() {
+        _machine.restore(_start);
+        int sum = 0;
+        for (int c : _message) {
+            sum += _machine.convert(c);
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,205 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of Machine: converting messages of 1K to 100M
+ *  characters one character at a time, as a char[] and as a String, and
+ *  parsing settings lines, for machines with several alphabet sizes and
+ *  numbers of rotors.  Each machine has one fixed rotor and a pawl in
+ *  every other slot but the reflector's.  Conversions are timed per
+ *  message, so that their times should grow in proportion to its length,
+ *  except for concatenate, the quadratic way convert(String) used to
+ *  work, which is only run on messages of up to 64K characters.
+ *  The forked JVM gets a heap large enough for the 100M-character
+ *  messages and their copies.
+ *  @author rw
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class MachineBench {
+
+    /** Number of settings lines cycled through by settingsLines. */
+    static final int LINES = 64;
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256", "1024" })
+    public int size;
+
+    /** Number of rotor slots. */
+    @Param({ "3", "5", "8" })
+    public int rotors;
+
+    /** The machine under test. */
+    private Machine _machine;
+
+    /** Its alphabet, as a string of its characters. */
+    private String _alphabet;
+
+    /** Its settings line. */
+    private String _settings;
+
+    /** Settings lines with differing positions and plugboards. */
+    private String[] _lines;
+
+    /** Index in _lines of the next line used by settingsLines. */
+    private int _next;
+
+    /** A random message for the machine of a MachineBench, in the forms
+     *  its conversions take.  Only the conversions use it, so that the
+     *  other benchmarks are not repeated for each length. */
+    @State(Scope.Thread)
+    public static class Message {
+
+        /** Number of characters in the message. */
+        @Param({ "1024", "65536", "1048576", "104857600" })
+        public int length;
+
+        /** The message. */
+        private String _message;
+
+        /** Its characters. */
+        private char[] _chars;
+
+        /** Their indices in the machine's alphabet. */
+        private int[] _indices;
+
+        /** Output buffer for convertBuffer. */
+        private char[] _out;
+
+        /** Generate a message of LENGTH random characters from the
+         *  alphabet of BENCH's machine. */
+        @Setup
+        public void setUp(MachineBench bench) {
+            Random random = new Random(length);
+            _chars = BenchUtils.randomMessage(bench._alphabet, length,
+                                              random);
+            _message = new String(_chars);
+            _out = new char[length];
+            _indices = new int[length];
+            Alphabet alpha = new Alphabet(bench._alphabet);
+            for (int i = 0; i < length; i += 1) {
+                _indices[i] = alpha.toInt(_chars[i]);
+            }
+        }
+    }
+
+    /** A random message of at most 64K characters for the machine of a
+     *  MachineBench, for concatenate. */
+    @State(Scope.Thread)
+    public static class ShortMessage {
+
+        /** Number of characters in the message. */
+        @Param({ "1024", "16384", "65536" })
+        public int concatLength;
+
+        /** The message. */
+        private String _message;
+
+        /** Generate a message of CONCATLENGTH random characters from the
+         *  alphabet of BENCH's machine. */
+        @Setup
+        public void setUp(MachineBench bench) {
+            Random random = new Random(concatLength);
+            _message = new String(BenchUtils.randomMessage(bench._alphabet,
+                                                            concatLength,
+                                                            random));
+        }
+    }
+
+    /** Set up a machine with random rotors and settings. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(31 * size + rotors);
+        String chars = BenchUtils.alphabet(size);
+        int pawls = rotors - 2;
+        _alphabet = chars;
+        _machine =
+            BenchUtils.machine(chars, BenchUtils.randomRotors(chars, rotors,
+                                                              pawls, random),
+                               rotors, pawls);
+        _settings = BenchUtils.randomSettings(chars, rotors, pawls, random);
+        _machine.parseSettings(_settings);
+        _lines = new String[LINES];
+        for (int i = 0; i < LINES; i += 1) {
+            _lines[i] =
+                BenchUtils.randomSettings(chars, rotors, pawls, random);
+        }
+    }
+
+    /** Convert the indices of MSG one at a time. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int convert(Message msg) {
+        int sum = 0;
+        for (int c : msg._indices) {
+            sum += _machine.convert(c);
+        }
+        return sum;
+    }
+
+    /** Convert the characters of MSG as an array in one call. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public char[] convertBuffer(Message msg) {
+        _machine.convert(msg._chars, 0, msg.length, msg._out);
+        return msg._out;
+    }
+
+    /** Convert MSG as a string. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String convertString(Message msg) {
+        return _machine.convert(msg._message);
+    }
+
+    /** Convert MSG as convert(String) used to, appending each converted
+     *  character to a String, which copies everything converted so far
+     *  for each character. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String concatenate(ShortMessage msg) {
+        Alphabet alpha = _machine.alphabet();
+        String converted = "";
+        for (int i = 0; i < msg._message.length(); i += 1) {
+            char c = msg._message.charAt(i);
+            converted += alpha.toChar(_machine.convert(alpha.toInt(c)));
+        }
+        return converted;
+    }
+
+    /** Set the machine up from its settings line. */
+    @Benchmark
+    public Machine parseSettings() {
+        _machine.parseSettings(_settings);
+        return _machine;
+    }
+
+    /** Set the machine up from each of _lines in turn, reporting settings
+     *  lines per second. */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Machine settingsLines() {
+        _machine.parseSettings(_lines[_next]);
+        _next = _next + 1 == LINES ? 0 : _next + 1;
+        return _machine;
+    }
+
+}
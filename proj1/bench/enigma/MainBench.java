@@ -0,0 +1,94 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of complete runs of Main, from reading the configuration
+ *  to writing the output file, on generated inputs of several lengths
+ *  using the default configuration, with and without --stream.
+ *  @author rw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MainBench {
+
+    /** Number of message characters per input line. */
+    static final int LINE = 70;
+
+    /** Number of message characters in the input. */
+    @Param({ "1024", "65536", "1048576" })
+    public int length;
+
+    /** Option given to Main, or "none". */
+    @Param({ "none", "--stream" })
+    public String mode;
+
+    /** Directory holding the files below. */
+    private Path _dir;
+
+    /** The configuration, input and output files. */
+    private Path _conf, _input, _output;
+
+    /** Write the configuration and an input of LENGTH random letters in
+     *  lines of LINE characters to a temporary directory. */
+    @Setup
+    public void setUp() throws IOException {
+        _dir = Files.createTempDirectory("enigma-bench");
+        _conf = _dir.resolve("default.conf");
+        _input = _dir.resolve("input.txt");
+        _output = _dir.resolve("output.txt");
+        Files.writeString(_conf, BenchUtils.config(BenchUtils.UPPER,
+                                                   BenchUtils.NAVAL, 5, 3));
+        char[] msg = BenchUtils.randomMessage(BenchUtils.UPPER, length,
+                                              new Random(length));
+        StringBuilder text = new StringBuilder(BenchUtils.SETTINGS);
+        for (int i = 0; i < length; i += 1) {
+            if (i % LINE == 0) {
+                text.append('\n');
+            }
+            text.append(msg[i]);
+        }
+        Files.writeString(_input, text.append('\n'));
+    }
+
+    /** Remove the files written by setUp. */
+    @TearDown
+    public void tearDown() throws IOException {
+        for (Path p : new Path[] { _conf, _input, _output, _dir }) {
+            Files.deleteIfExists(p);
+        }
+    }
+
+    /** Run Main once on the input. */
+    @Benchmark
+    public void main() {
+        if (mode.equals("none")) {
+            Main.main(_conf.toString(), _input.toString(),
+                      _output.toString());
+        } else {
+            Main.main(mode, _conf.toString(), _input.toString(),
+                      _output.toString());
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/** Throughput test of Main's --mmap mode against --stream on a generated
+ *  input of several gigabytes.  The single optional argument is the size
+ *  of the input in megabytes (default 4096).  The input and outputs are
+ *  written to the temporary directory and deleted afterwards.
+ *  @author rw
+ */
+class MappedBench {
+
+    /** Default input size in megabytes. */
+    private static final long DEFAULT_MB = 4096;
+
+    /** Number of message characters per input line. */
+    private static final int LINE = 70;
+
+    /** Number of message lines between settings lines. */
+    private static final int LINES_PER_MESSAGE = 100_000;
+
+    /** Run the test, as described in the class comment, with input size
+     *  ARGS[0] megabytes, if present. */
+    public static void main(String... args) throws IOException {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_MB)
+            << 20;
+        Path dir = Files.createTempDirectory("enigma-bench");
+        Path conf = dir.resolve("default.conf");
+        Path input = dir.resolve("input.txt");
+        Path streamed = dir.resolve("streamed.txt");
+        Path mapped = dir.resolve("mapped.txt");
+        try {
+            writeConfig(conf);
+            generate(input, size, new Random(size));
+            System.out.printf("input: %,d bytes%n", Files.size(input));
+            time("--stream", size, conf, input, streamed);
+            time("--mmap", size, conf, input, mapped);
+            System.out.println(Files.mismatch(streamed, mapped) == -1
+                               ? "outputs identical" : "OUTPUTS DIFFER");
+        } finally {
+            for (Path p : new Path[] { conf, input, streamed, mapped, dir }) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /** Run Main with OPTION on configuration CONF, INPUT and OUTPUT,
+     *  printing the throughput over SIZE bytes. */
+    static void time(String option, long size, Path conf, Path input,
+                     Path output) {
+        long start = System.nanoTime();
+        Main.main(option, conf.toString(), input.toString(),
+                  output.toString());
+        double secs = (System.nanoTime() - start) * 1e-9;
+        System.out.printf("%-10s %8.2f s %10.1f MB/s%n", option, secs,
+                          size / secs / (1 << 20));
+    }
+
+    /** Write the configuration of BenchUtils.NAVAL to CONF. */
+    static void writeConfig(Path conf) throws IOException {
+        Files.writeString(conf, BenchUtils.config(BenchUtils.UPPER,
+                                                  BenchUtils.NAVAL, 5, 3));
+    }
+
+    /** Write about SIZE bytes of messages to INPUT, using random letters
+     *  from RANDOM. */
+    static void generate(Path input, long size, Random random)
+        throws IOException {
+        byte[] settings =
+            (BenchUtils.SETTINGS + "\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] line = new byte[LINE + 1];
+        line[LINE] = '\n';
+        try (OutputStream out =
+             new BufferedOutputStream(Files.newOutputStream(input), 1 << 20)) {
+            long written = 0;
+            for (long n = 0; written < size; n += 1) {
+                if (n % LINES_PER_MESSAGE == 0) {
+                    out.write(settings);
+                    written += settings.length;
+                }
+                for (int i = 0; i < LINE; i += 1) {
+                    line[i] = (byte) ('A' + random.nextInt(26));
+                }
+                out.write(line);
+                written += line.length;
+            }
+        }
+    }
+
+}
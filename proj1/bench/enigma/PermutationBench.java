@@ -0,0 +1,112 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of Permutation: permuting and inverting indices and
+ *  characters, and building a permutation from its cycles, for alphabets
+ *  of several sizes.
+ *  @author rw
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermutationBench {
+
+    /** Number of inputs converted per benchmark invocation. */
+    static final int BATCH = 1024;
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256", "1024" })
+    public int size;
+
+    /** The alphabet of _perm. */
+    private Alphabet _alphabet;
+
+    /** Cycles of _perm. */
+    private String _cycles;
+
+    /** The permutation under test. */
+    private Permutation _perm;
+
+    /** Indices to convert. */
+    private final int[] _indices = new int[BATCH];
+
+    /** Characters to convert. */
+    private final char[] _chars = new char[BATCH];
+
+    /** Set up a random permutation of an alphabet of SIZE characters and
+     *  random inputs for it. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        String chars = BenchUtils.alphabet(size);
+        _alphabet = new Alphabet(chars);
+        _cycles = BenchUtils.cycles(chars, random);
+        _perm = new Permutation(_cycles, _alphabet);
+        for (int i = 0; i < BATCH; i += 1) {
+            _indices[i] = random.nextInt(size);
+            _chars[i] = chars.charAt(_indices[i]);
+        }
+    }
+
+    /** Permute BATCH indices, returning a value that depends on all of
+     *  them. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int permute() {
+        int sum = 0;
+        for (int p : _indices) {
+            sum += _perm.permute(p);
+        }
+        return sum;
+    }
+
+    /** Invert BATCH indices, returning a value that depends on all of
+     *  them. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int invert() {
+        int sum = 0;
+        for (int c : _indices) {
+            sum += _perm.invert(c);
+        }
+        return sum;
+    }
+
+    /** Permute BATCH characters, returning a value that depends on all of
+     *  them. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int permuteChar() {
+        int sum = 0;
+        for (char p : _chars) {
+            sum += _perm.permute(p);
+        }
+        return sum;
+    }
+
+    /** Return a new permutation built from the cycles of the one under
+     *  test. */
+    @Benchmark
+    public Permutation build() {
+        return new Permutation(_cycles, _alphabet);
+    }
+
+}
@@ -0,0 +1,103 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of Rotor conversions at varying settings, compared with
+ *  computing the same conversion from the permutation with modular
+ *  arithmetic.  Alphabets larger than Rotor.MAX_TABLE_SIZE exercise the
+ *  rotor's untabulated path.
+ *  @author rw
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RotorBench {
+
+    /** Number of conversions per benchmark invocation. */
+    static final int BATCH = 1024;
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256", "1024" })
+    public int size;
+
+    /** The rotor under test. */
+    private Rotor _rotor;
+
+    /** Its permutation. */
+    private Permutation _perm;
+
+    /** Inputs to convert. */
+    private final int[] _inputs = new int[BATCH];
+
+    /** The setting at which each of _inputs is converted. */
+    private final int[] _settings = new int[BATCH];
+
+    /** Set up a random moving rotor over an alphabet of SIZE characters
+     *  and random inputs and settings for it. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        String chars = BenchUtils.alphabet(size);
+        _perm = new Permutation(BenchUtils.cycles(chars, random),
+                                new Alphabet(chars));
+        _rotor = new MovingRotor("M", _perm, chars.substring(0, 1));
+        _rotor.prepare();
+        for (int i = 0; i < BATCH; i += 1) {
+            _inputs[i] = random.nextInt(size);
+            _settings[i] = random.nextInt(size);
+        }
+    }
+
+    /** Convert BATCH inputs forward. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int convertForward() {
+        int sum = 0;
+        for (int i = 0; i < BATCH; i += 1) {
+            sum += _rotor.convertForward(_inputs[i], _settings[i]);
+        }
+        return sum;
+    }
+
+    /** Convert BATCH inputs backward. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int convertBackward() {
+        int sum = 0;
+        for (int i = 0; i < BATCH; i += 1) {
+            sum += _rotor.convertBackward(_inputs[i], _settings[i]);
+        }
+        return sum;
+    }
+
+    /** Convert BATCH inputs forward by shifting into and out of the
+     *  permutation, as a rotor without tables does. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int convertForwardModular() {
+        int sum = 0;
+        for (int i = 0; i < BATCH; i += 1) {
+            int s = _settings[i];
+            sum += _perm.wrap(_perm.permute(_inputs[i] + s) - s);
+        }
+        return sum;
+    }
+
+}
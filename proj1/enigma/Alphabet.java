@@ -1,43 +1,170 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /* Extra Credit Only */
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Characters are Unicode code
+ *  points, so an alphabet may contain supplementary characters (those
+ *  represented in a String by a surrogate pair) as well as ordinary chars.
  *  @author rw
  */
 class Alphabet {
 
-    /** A new alphabet containing CHARS.  Character number #k has index
-     *  K (numbering from 0). No character may be duplicated. */
-    private String _chars;
-    /** a private string of chars */
+    /** Number of low-order bits of a code point that select its entry
+     *  within a page of _pages. */
+    private static final int PAGE_BITS = 8;
+
+    /** Number of entries in a page of _pages. */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /** The characters of this alphabet, in order. */
+    private int[] _codePoints;
 
+    /** A two-level index of _codePoints: if C is in the alphabet,
+     *  _pages[C >>> PAGE_BITS][C % PAGE_SIZE] is its index.  Pages
+     *  containing no characters of the alphabet are null, and other
+     *  entries are -1.  _pages ends with the page of the largest
+     *  character. */
+    private int[][] _pages;
+
+    /** True iff all my characters are in the Basic Multilingual Plane. */
+    private boolean _bmp;
+
+    /** A new alphabet containing the characters (code points) of CHARS.
+     *  Character number #k has index K (numbering from 0). No character
+     *  may be duplicated. */
     Alphabet(String chars) {
-        _chars = chars;
+        int[] codePoints = new int[chars.length()];
+        int n, max;
+        n = max = 0;
+        for (int i = 0; i < chars.length(); n += 1) {
+            codePoints[n] = chars.codePointAt(i);
+            max = Math.max(max, codePoints[n]);
+            i += Character.charCount(codePoints[n]);
+        }
+        if (n == 0) {
+            throw error("empty alphabet");
+        }
+        _codePoints = Arrays.copyOf(codePoints, n);
+        _pages = new int[(max >>> PAGE_BITS) + 1][];
+        _bmp = max <= Character.MAX_VALUE;
+        for (int i = 0; i < _codePoints.length; i += 1) {
+            int c = _codePoints[i];
+            int[] page = _pages[c >>> PAGE_BITS];
+            if (page == null) {
+                page = _pages[c >>> PAGE_BITS] = new int[PAGE_SIZE];
+                Arrays.fill(page, -1);
+            }
+            if (page[c & (PAGE_SIZE - 1)] != -1) {
+                throw error("character '%c' repeated in alphabet", c);
+            }
+            page[c & (PAGE_SIZE - 1)] = i;
+        }
     }
 
     /** Returns the size of the alphabet. */
     int size() {
-        return _chars.length();
+        return _codePoints.length;
+    }
+
+    /** Returns true iff every character of this alphabet is a single
+     *  char (that is, none is a supplementary character). */
+    boolean bmp() {
+        return _bmp;
     }
 
     /** Returns true if C is in this alphabet. */
-    boolean contains(char c) {
-        return (_chars.indexOf(c) != -1);
+    boolean contains(int c) {
+        return index(c) != -1;
     }
 
     /** Returns character number INDEX in the alphabet, where
-     *  0 <= INDEX < size(). */
+     *  0 <= INDEX < size().  That character must not be a supplementary
+     *  character. */
     char toChar(int index) {
-        return _chars.charAt(index % this.size());
+        int c = _codePoints[index % this.size()];
+        if (c > Character.MAX_VALUE) {
+            throw error("character %d is not a single char", index);
+        }
+        return (char) c;
+    }
+
+    /** Returns the code point of character number INDEX in the alphabet,
+     *  where 0 <= INDEX < size(). */
+    int toCodePoint(int index) {
+        return _codePoints[index];
     }
 
     /** Returns the index of character C, which must be in the alphabet. */
-    int toInt(char c) {
-        return _chars.indexOf(c);
+    int toInt(int c) {
+        int k = index(c);
+        if (k == -1) {
+            throw error("character '%c' not in alphabet", c);
+        }
+        return k;
+    }
+
+    /** Returns the index of character C, or -1 if it is not in the
+     *  alphabet. */
+    private int index(int c) {
+        int p = c >>> PAGE_BITS;
+        if (p >= _pages.length || _pages[p] == null) {
+            return -1;
+        }
+        return _pages[p][c & (PAGE_SIZE - 1)];
+    }
+
+    /** Store the index of each character (code point) of CHARS, all of
+     *  which must be in the alphabet, in successive elements of RESULT,
+     *  which must have room for CHARS.length() values.  Returns the number
+     *  of indices stored, which is less than CHARS.length() if CHARS
+     *  contains supplementary characters. */
+    int toInts(CharSequence chars, int[] result) {
+        int n = 0;
+        for (int i = 0; i < chars.length(); n += 1) {
+            int c = Character.codePointAt(chars, i);
+            result[n] = toInt(c);
+            i += Character.charCount(c);
+        }
+        return n;
+    }
+
+    /** Store the indices of the LEN characters of CHARS starting at OFF,
+     *  all of which must be in the alphabet, at the beginning of
+     *  RESULT. */
+    void toInts(char[] chars, int off, int len, int[] result) {
+        for (int i = 0; i < len; i += 1) {
+            result[i] = toInt(chars[off + i]);
+        }
+    }
+
+    /** Store the character numbered by each element of INDICES in the
+     *  corresponding element of RESULT. */
+    void toChars(int[] indices, char[] result) {
+        toChars(indices, indices.length, result, 0);
+    }
+
+    /** Store the characters numbered by the first LEN elements of INDICES
+     *  in RESULT, starting at OFF. */
+    void toChars(int[] indices, int len, char[] result, int off) {
+        for (int i = 0; i < len; i += 1) {
+            result[off + i] = toChar(indices[i]);
+        }
+    }
+
+    /** Return the string of the characters numbered by the first LEN
+     *  elements of INDICES, which may include supplementary
+     *  characters. */
+    String toString(int[] indices, int len) {
+        StringBuilder result = new StringBuilder(len);
+        for (int i = 0; i < len; i += 1) {
+            result.appendCodePoint(_codePoints[indices[i]]);
+        }
+        return result.toString();
     }
 
 }
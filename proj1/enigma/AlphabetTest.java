@@ -0,0 +1,140 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Alphabet class.
+ *  @author rw
+ */
+public class AlphabetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** An alphabet of punctuation, digits and letters, out of order. */
+    private static final String MIXED = "zy9_.A-0!~ba";
+
+    @Test
+    public void checkIndices() {
+        Alphabet alpha = new Alphabet(MIXED);
+        assertEquals(MIXED.length(), alpha.size());
+        for (int i = 0; i < MIXED.length(); i += 1) {
+            char c = MIXED.charAt(i);
+            assertTrue(alpha.contains(c));
+            assertEquals(i, alpha.toInt(c));
+            assertEquals(c, alpha.toChar(i));
+        }
+        assertFalse(alpha.contains('B'));
+        assertFalse(alpha.contains(' '));
+        assertFalse(alpha.contains('\u00ff'));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkMissing() {
+        new Alphabet(MIXED).toInt('c');
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicate() {
+        new Alphabet("ABCA");
+    }
+
+    @Test
+    public void checkBulk() {
+        Alphabet alpha = new Alphabet(MIXED);
+        String text = "~~abz-09";
+        int[] indices = new int[text.length()];
+        alpha.toInts(text, indices);
+        for (int i = 0; i < text.length(); i += 1) {
+            assertEquals(MIXED.indexOf(text.charAt(i)), indices[i]);
+        }
+        char[] chars = new char[text.length()];
+        alpha.toChars(indices, chars);
+        assertEquals(text, new String(chars));
+
+        char[] padded = ("##" + text).toCharArray();
+        alpha.toInts(padded, 2, text.length(), indices);
+        alpha.toChars(indices, text.length(), padded, 0);
+        assertEquals(text + "09", new String(padded));
+    }
+
+    @Test
+    public void checkSupplementary() {
+        String chars = "A\uD835\uDC00B\uD83D\uDE00";
+        Alphabet alpha = new Alphabet(chars);
+        assertEquals(4, alpha.size());
+        assertFalse(alpha.bmp());
+        assertEquals(1, alpha.toInt(0x1D400));
+        assertEquals(3, alpha.toInt(0x1F600));
+        assertEquals(0x1F600, alpha.toCodePoint(3));
+        assertFalse(alpha.contains(0x1D401));
+        assertFalse(alpha.contains(0xD835));
+        int[] indices = new int[chars.length()];
+        assertEquals(4, alpha.toInts("B\uD83D\uDE00\uD835\uDC00A", indices));
+        assertEquals(2, indices[0]);
+        assertEquals(3, indices[1]);
+        assertEquals(1, indices[2]);
+        assertEquals(0, indices[3]);
+        assertEquals("B\uD83D\uDE00\uD835\uDC00A",
+                     alpha.toString(indices, 4));
+    }
+
+    @Test
+    public void checkLarge() {
+        StringBuilder chars = new StringBuilder();
+        for (int c = 0x10000; c < 0x20000; c += 1) {
+            chars.appendCodePoint(c);
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        assertEquals(0x10000, alpha.size());
+        for (int i = 0; i < alpha.size(); i += 1) {
+            assertEquals(i, alpha.toInt(0x10000 + i));
+        }
+        assertFalse(alpha.contains(0xFFFF));
+        assertFalse(alpha.contains(0x20000));
+    }
+
+    @Test
+    public void checkBytes() {
+        ByteAlphabet alpha = new ByteAlphabet();
+        assertEquals(256, alpha.size());
+        for (int b = 0; b < 256; b += 1) {
+            assertEquals(b, alpha.toInt(alpha.toChar(b)));
+        }
+        assertFalse(alpha.contains('('));
+        assertEquals("(\u0100\u01ff) \u01a0", ByteAlphabet.decode("(00ff) A0"));
+    }
+
+    @Test
+    public void checkByteSettings() {
+        String rotors = "* B BETA CAFE FACE ";
+        String decoded = rotors + ByteAlphabet.decode("00ff7f01") + " "
+            + ByteAlphabet.decode("0a0b0c0d (0102) (a0b0)");
+        assertEquals(decoded,
+                     ByteAlphabet.decodeSettings(rotors
+                                                 + "00ff7f01 0a0b0c0d "
+                                                 + "(0102) (a0b0)", 4));
+        assertEquals(decoded,
+                     ByteAlphabet.decodeSettings("  *\tB  BETA\t CAFE   FACE"
+                                                 + "  00ff7f01\t0a0b0c0d  "
+                                                 + "(0102) (a0b0)", 4));
+        assertEquals("* B BETA CAFE FACE "
+                     + ByteAlphabet.decode("00ff7f01"),
+                     ByteAlphabet.decodeSettings("* B BETA CAFE FACE "
+                                                 + "00ff7f01\r", 4));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkNonAsciiHex() {
+        ByteAlphabet.decode("0\u0661");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkOddHex() {
+        ByteAlphabet.decode("(0ff)");
+    }
+
+}
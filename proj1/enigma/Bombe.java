@@ -0,0 +1,551 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A Turing-Welchman bombe: finds the rotor orders and positions of a
+ *  machine at which a ciphertext could convert to a known plaintext (a
+ *  crib), together with the plugboard pairs that this implies, without
+ *  trying plugboards one by one.
+ *
+ *  The crib and the ciphertext under it form a menu: a graph on the
+ *  characters with an edge between the plaintext and ciphertext
+ *  characters at each step K.  If the plugboard is P and S_K is the
+ *  scrambler (rotors and reflector) at step K, an edge between A and B
+ *  means that P(B) = S_K(P(A)), so the hypothesis that A is plugged to
+ *  X implies that B is plugged to S_K(X), and (by the diagonal board)
+ *  that X is plugged to A.  At each position, the bombe assumes in turn
+ *  that the most connected character T of the menu is plugged to each
+ *  character H and finds all the implications.  Each set of
+ *  implications is closed, and if it plugs any character to two others,
+ *  every hypothesis in it, including every H' that it plugs T to, is
+ *  false.  A position at which some hypothesis is consistent is a stop.
+ *  The other connected parts of the menu are then resolved the same
+ *  way, and a stop is reported if each has a consistent hypothesis
+ *  compatible with the first.
+ *
+ *  The scrambler tables S_K are compiled from the rotors' own tables: the
+ *  rotors to the left of the rightmost one, with the reflector, are
+ *  composed into one table that is reused for as long as they stay in the
+ *  same positions, so that each S_K costs the rightmost rotor's two
+ *  lookups per character.  Implied pairs are kept as one bitset of
+ *  characters per character.  Positions are searched in parallel on a
+ *  fork-join pool, divided as in KeySearch.
+ *  @author rw
+ */
+class Bombe {
+
+    /** Machine whose rotors are searched. */
+    private final Machine _machine;
+    /** Ciphertext, as indices. */
+    private final int[] _ciphertext;
+    /** Known plaintext of part of _ciphertext, as indices. */
+    private final int[] _crib;
+    /** Index in _ciphertext of the character corresponding to _crib[0]. */
+    private final int _offset;
+    /** Size of the alphabet. */
+    private final int _size;
+    /** Number of longs in a bitset of characters. */
+    private final int _words;
+    /** Number of rotor slots. */
+    private final int _numRotors;
+    /** The bitset of all characters. */
+    private final long[] _full;
+
+    /** The edges of the menu at character A are numbered from
+     *  _edgeStart[A] to _edgeStart[A + 1] - 1. */
+    private final int[] _edgeStart;
+    /** _edgeEnd[E] is the character at the other end of edge E. */
+    private final int[] _edgeEnd;
+    /** _edgeStep[E] is the step of the crib at which edge E was made. */
+    private final int[] _edgeStep;
+    /** The test character of each connected part of the menu, the part
+     *  with the most edges first. */
+    private final int[] _tests;
+
+    /** Rotor orders searched by the current search. */
+    private List<Rotor[]> _orders;
+    /** Number of positions in a unit: the combinations of settings of the
+     *  rotors in slots 2 and after. */
+    private final long _unitPositions;
+    /** Stops found by the current search. */
+    private List<Stop> _stops;
+    /** Number of positions tested by the current search. */
+    private LongAdder _tested;
+    /** Duration of the last search, in nanoseconds. */
+    private long _nanos;
+
+    /** A bombe for the keys of MACHINE under which
+     *  CIPHERTEXT[OFFSET .. OFFSET + CRIB.length - 1] (indices into
+     *  MACHINE's alphabet) converts to CRIB.  MACHINE's plugboard is
+     *  ignored. */
+    Bombe(Machine machine, int[] ciphertext, int[] crib, int offset) {
+        if (crib.length == 0 || offset < 0
+            || offset + crib.length > ciphertext.length) {
+            throw error("crib does not lie within the ciphertext");
+        }
+        _machine = machine;
+        _ciphertext = ciphertext;
+        _crib = crib;
+        _offset = offset;
+        _size = machine.alphabet().size();
+        _words = (_size + 63) / 64;
+        _numRotors = machine.numRotors();
+        _full = new long[_words];
+        for (int a = 0; a < _size; a += 1) {
+            _full[a >>> 6] |= 1L << a;
+        }
+        long unit = 1;
+        for (int k = 2; k < _numRotors; k += 1) {
+            unit = Math.multiplyExact(unit, _size);
+        }
+        _unitPositions = unit;
+
+        _edgeStart = new int[_size + 1];
+        for (int k = 0; k < crib.length; k += 1) {
+            _edgeStart[crib[k] + 1] += 1;
+            _edgeStart[ciphertext[offset + k] + 1] += 1;
+        }
+        for (int a = 0; a < _size; a += 1) {
+            _edgeStart[a + 1] += _edgeStart[a];
+        }
+        _edgeEnd = new int[2 * crib.length];
+        _edgeStep = new int[2 * crib.length];
+        int[] next = Arrays.copyOf(_edgeStart, _size);
+        for (int k = 0; k < crib.length; k += 1) {
+            int p = crib[k], c = ciphertext[offset + k];
+            _edgeEnd[next[p]] = c;
+            _edgeStep[next[p]++] = k;
+            _edgeEnd[next[c]] = p;
+            _edgeStep[next[c]++] = k;
+        }
+        _tests = tests();
+    }
+
+    /** Return the test characters of the connected parts of the menu (the
+     *  character with the most edges in each), the part with the most
+     *  edges first. */
+    private int[] tests() {
+        int[] part = new int[_size];
+        Arrays.fill(part, -1);
+        List<int[]> parts = new ArrayList<>();
+        int[] stack = new int[_size];
+        for (int a = 0; a < _size; a += 1) {
+            if (part[a] != -1 || degree(a) == 0) {
+                continue;
+            }
+            int test = a, edges = 0, top = 0;
+            part[a] = parts.size();
+            stack[top++] = a;
+            while (top > 0) {
+                int b = stack[--top];
+                edges += degree(b);
+                if (degree(b) > degree(test)) {
+                    test = b;
+                }
+                for (int e = _edgeStart[b]; e < _edgeStart[b + 1]; e += 1) {
+                    if (part[_edgeEnd[e]] == -1) {
+                        part[_edgeEnd[e]] = parts.size();
+                        stack[top++] = _edgeEnd[e];
+                    }
+                }
+            }
+            parts.add(new int[] { edges, test });
+        }
+        parts.sort((x, y) -> Integer.compare(y[0], x[0]));
+        int[] result = new int[parts.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = parts.get(i)[1];
+        }
+        return result;
+    }
+
+    /** Return the number of edges of the menu at character A. */
+    private int degree(int a) {
+        return _edgeStart[a + 1] - _edgeStart[a];
+    }
+
+    /** Search every position of every order of my machine's rotors on
+     *  POOL, and return the stops, in the order of their rotors in the
+     *  machine's catalog and then of their settings. */
+    List<Stop> search(ForkJoinPool pool) {
+        return search(KeySearch.orders(_machine), pool);
+    }
+
+    /** Search every position of each of the rotor orders ORDERS (each a
+     *  reflector, fixed rotors and moving rotors for my machine's slots)
+     *  on POOL, and return the stops, in the order of ORDERS and then of
+     *  their settings. */
+    List<Stop> search(List<Rotor[]> orders, ForkJoinPool pool) {
+        _orders = orders;
+        _stops = new ArrayList<>();
+        _tested = new LongAdder();
+        long start = System.nanoTime();
+        pool.invoke(new SearchTask(0, (long) orders.size() * _size));
+        _nanos = System.nanoTime() - start;
+        Collections.sort(_stops);
+        return _stops;
+    }
+
+    /** Return the number of positions tested by the last search. */
+    long tested() {
+        return _tested.sum();
+    }
+
+    /** Return the number of positions tested per second by the last
+     *  search. */
+    double rate() {
+        return tested() * 1e9 / Math.max(_nanos, 1);
+    }
+
+    /** A stop: a rotor order and settings, with the plugboard pairs that
+     *  the crib implies at them. */
+    static class Stop implements Comparable<Stop> {
+
+        /** The stop with rotors ROTORS, number INDEX in the search's
+         *  orders, at settings SETTINGS, with plugboard PLUGBOARD. */
+        Stop(long index, Rotor[] rotors, int[] settings,
+             Permutation plugboard) {
+            _index = index;
+            _rotors = rotors;
+            _settings = settings;
+            _plugboard = plugboard;
+        }
+
+        /** Return my rotors, reflector first. */
+        Rotor[] rotors() {
+            return _rotors;
+        }
+
+        /** Return the settings of my rotors, reflector first. */
+        int[] settings() {
+            return _settings;
+        }
+
+        /** Return my plugboard.  Characters that the crib says nothing
+         *  about are unplugged. */
+        Permutation plugboard() {
+            return _plugboard;
+        }
+
+        @Override
+        public int compareTo(Stop other) {
+            if (_index != other._index) {
+                return Long.compare(_index, other._index);
+            }
+            return Arrays.compare(_settings, other._settings);
+        }
+
+        /** Return the settings line for me. */
+        @Override
+        public String toString() {
+            return Machine.settingsLine(_plugboard.alphabet(), _rotors,
+                                        _settings, _plugboard);
+        }
+
+        /** Position of my rotor order in the search's orders. */
+        private final long _index;
+        /** My rotors, reflector first. */
+        private final Rotor[] _rotors;
+        /** Settings of _rotors. */
+        private final int[] _settings;
+        /** My plugboard. */
+        private final Permutation _plugboard;
+    }
+
+    /** The state of one task's search: a fork of the machine, used to
+     *  step through the crib, and space for the scrambler tables and
+     *  implications at one position, all reused from position to
+     *  position. */
+    private class Worker {
+
+        /** Fork of my machine, stepped through the crib. */
+        private final Machine _fork = _machine.fork();
+        /** _steps[K] holds the settings of the rotors at step K. */
+        private final int[][] _steps = new int[_crib.length][_numRotors];
+        /** _tables[K][X] is the scrambler S_K applied to X. */
+        private final int[][] _tables = new int[_crib.length][_size];
+        /** _inner[K] is the composition of all but the rightmost rotor and
+         *  the reflector, at the settings in _innerFor[K]. */
+        private final int[][] _inner = new int[_crib.length][_size];
+        /** The settings for which _inner[K] was computed, if
+         *  _innerValid[K]. */
+        private final int[][] _innerFor = new int[_crib.length][_numRotors];
+        /** True iff _inner[K] is valid. */
+        private final boolean[] _innerValid = new boolean[_crib.length];
+        /** Implied pairs: character X is plugged to A iff bit X % 64 of
+         *  _lit[A * _words + X / 64] is 1. */
+        private final long[] _lit = new long[_size * _words];
+        /** Characters plugged to the test character so far. */
+        private final long[] _covered = new long[_words];
+        /** Queue of pairs A * _size + X whose implications are pending. */
+        private final int[] _queue = new int[_size * _size];
+        /** _plugs[A] is the character plugged to A at a stop, or -1 if
+         *  unknown. */
+        private final int[] _plugs = new int[_size];
+        /** _plugs of another part of the menu being resolved. */
+        private final int[] _partPlugs = new int[_size];
+
+        /** Test the positions in units LO .. HI-1 (see
+         *  KeySearch.search(long, long)). */
+        void search(long lo, long hi) {
+            int[] settings = new int[_numRotors];
+            Rotor[] current = null;
+            long tested = 0;
+            for (long u = lo; u < hi; u += 1) {
+                Rotor[] order = _orders.get((int) (u / _size));
+                if (order != current) {
+                    _fork.insertRotors(order);
+                    Arrays.fill(_innerValid, false);
+                    current = order;
+                }
+                Arrays.fill(settings, 0);
+                settings[1] = (int) (u % _size);
+                do {
+                    tested += 1;
+                    test(u / _size, order, settings);
+                } while (next(settings));
+            }
+            _tested.add(tested);
+        }
+
+        /** Advance SETTINGS[2 ..] to the next combination of settings, the
+         *  rightmost changing fastest.  Return false if they wrap around
+         *  to all zeros. */
+        private boolean next(int[] settings) {
+            for (int k = settings.length - 1; k >= 2; k -= 1) {
+                settings[k] += 1;
+                if (settings[k] < _size) {
+                    return true;
+                }
+                settings[k] = 0;
+            }
+            return false;
+        }
+
+        /** Test the rotors ORDER, number INDEX in _orders, at SETTINGS,
+         *  recording any stops. */
+        private void test(long index, Rotor[] order, int[] settings) {
+            _fork.restore(settings);
+            if (_offset > 0) {
+                _fork.advanceBy(_offset);
+            }
+            for (int k = 0; k < _crib.length; k += 1) {
+                _fork.rotate();
+                _fork.snapshot(_steps[k]);
+                compile(order, k);
+            }
+            Arrays.fill(_covered, 0);
+            int test = _tests[0];
+            for (int h = 0; h < _size; h += 1) {
+                if ((_covered[h >>> 6] & (1L << h)) != 0) {
+                    continue;
+                }
+                close(test, h);
+                for (int w = 0; w < _words; w += 1) {
+                    _covered[w] |= _lit[test * _words + w];
+                }
+                if (consistent(_plugs) && resolveOthers()) {
+                    found(index, order, settings);
+                }
+            }
+        }
+
+        /** Compute _tables[K] for the rotors ORDER at settings
+         *  _steps[K]. */
+        private void compile(Rotor[] order, int k) {
+            int[] step = _steps[k];
+            int last = _numRotors - 1;
+            if (!_innerValid[k]
+                || !Arrays.equals(step, 0, last, _innerFor[k], 0, last)) {
+                if (k > 0
+                    && Arrays.equals(step, 0, last, _innerFor[k - 1], 0,
+                                     last)) {
+                    System.arraycopy(_inner[k - 1], 0, _inner[k], 0, _size);
+                } else {
+                    for (int x = 0; x < _size; x += 1) {
+                        int y = x;
+                        for (int i = last - 1; i >= 0; i -= 1) {
+                            y = order[i].convertForward(y, step[i]);
+                        }
+                        for (int i = 1; i < last; i += 1) {
+                            y = order[i].convertBackward(y, step[i]);
+                        }
+                        _inner[k][x] = y;
+                    }
+                }
+                System.arraycopy(step, 0, _innerFor[k], 0, _numRotors);
+                _innerValid[k] = true;
+            }
+            Rotor fast = order[last];
+            int s = step[last];
+            int[] inner = _inner[k], table = _tables[k];
+            for (int x = 0; x < _size; x += 1) {
+                table[x] =
+                    fast.convertBackward(inner[fast.convertForward(x, s)], s);
+            }
+        }
+
+        /** Set _lit to all the pairs implied by plugging character A to
+         *  character X, stopping early if they plug A to every character
+         *  (since then every hypothesis about A is false). */
+        private void close(int a, int x) {
+            Arrays.fill(_lit, 0);
+            int head = 0;
+            int tail = light(a, x, 0);
+            while (head < tail && !full(a)) {
+                int pair = _queue[head++];
+                int b = pair / _size, y = pair % _size;
+                for (int e = _edgeStart[b]; e < _edgeStart[b + 1]; e += 1) {
+                    tail = light(_edgeEnd[e], _tables[_edgeStep[e]][y], tail);
+                }
+            }
+        }
+
+        /** Return true iff _lit plugs A to every character. */
+        private boolean full(int a) {
+            for (int w = 0; w < _words; w += 1) {
+                if (_lit[a * _words + w] != _full[w]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Add the pair of A and X (both ways) to _lit and to the end of
+         *  _queue, which currently ends at TAIL, if it is not already in
+         *  _lit.  Return the new end of _queue. */
+        private int light(int a, int x, int tail) {
+            int i = a * _words + (x >>> 6);
+            if ((_lit[i] & (1L << x)) != 0) {
+                return tail;
+            }
+            _lit[i] |= 1L << x;
+            _queue[tail++] = a * _size + x;
+            if (a != x) {
+                _lit[x * _words + (a >>> 6)] |= 1L << a;
+                _queue[tail++] = x * _size + a;
+            }
+            return tail;
+        }
+
+        /** Return true iff _lit plugs no character to more than one
+         *  other, storing the character plugged to each in PLUGS (-1 if
+         *  none) if so. */
+        private boolean consistent(int[] plugs) {
+            for (int a = 0; a < _size; a += 1) {
+                plugs[a] = -1;
+                for (int w = 0; w < _words; w += 1) {
+                    long bits = _lit[a * _words + w];
+                    if (bits == 0) {
+                        continue;
+                    }
+                    if (plugs[a] != -1 || (bits & (bits - 1)) != 0) {
+                        return false;
+                    }
+                    plugs[a] = w * 64 + Long.numberOfTrailingZeros(bits);
+                }
+            }
+            return true;
+        }
+
+        /** Resolve the parts of the menu after the first, adding to _plugs
+         *  the pairs of each part that has exactly one consistent
+         *  hypothesis compatible with _plugs.  Return false if some part
+         *  has none. */
+        private boolean resolveOthers() {
+            for (int p = 1; p < _tests.length; p += 1) {
+                int test = _tests[p];
+                int found = 0, plugged = -1;
+                Arrays.fill(_covered, 0);
+                for (int h = 0; h < _size && found < 2; h += 1) {
+                    if ((_covered[h >>> 6] & (1L << h)) != 0) {
+                        continue;
+                    }
+                    close(test, h);
+                    for (int w = 0; w < _words; w += 1) {
+                        _covered[w] |= _lit[test * _words + w];
+                    }
+                    if (consistent(_partPlugs) && compatible()) {
+                        found += 1;
+                        plugged = h;
+                    }
+                }
+                if (found == 0) {
+                    return false;
+                } else if (found == 1) {
+                    close(test, plugged);
+                    consistent(_partPlugs);
+                    for (int a = 0; a < _size; a += 1) {
+                        if (_partPlugs[a] != -1) {
+                            _plugs[a] = _partPlugs[a];
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Return true iff _partPlugs plugs no character differently from
+         *  _plugs. */
+        private boolean compatible() {
+            for (int a = 0; a < _size; a += 1) {
+                if (_partPlugs[a] != -1 && _plugs[a] != -1
+                    && _partPlugs[a] != _plugs[a]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Record a stop with the rotors ORDER, number INDEX in _orders,
+         *  at SETTINGS, with the plugboard given by _plugs. */
+        private void found(long index, Rotor[] order, int[] settings) {
+            int[] forward = new int[_size];
+            for (int a = 0; a < _size; a += 1) {
+                forward[a] = _plugs[a] == -1 ? a : _plugs[a];
+            }
+            Stop stop = new Stop(index, order, settings.clone(),
+                                 new Permutation(forward,
+                                                 _machine.alphabet()));
+            synchronized (_stops) {
+                _stops.add(stop);
+            }
+        }
+    }
+
+    /** A task testing the positions in a range of units (see
+     *  Worker.search), dividing it among subtasks if it is large. */
+    private class SearchTask extends RecursiveAction {
+
+        /** A task testing units LO .. HI-1. */
+        SearchTask(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= 1
+                || (_hi - _lo) * _unitPositions <= KeySearch.LEAF_KEYS) {
+                new Worker().search(_lo, _hi);
+            } else {
+                long mid = (_lo + _hi) >>> 1;
+                invokeAll(new SearchTask(_lo, mid), new SearchTask(mid, _hi));
+            }
+        }
+
+        /** First unit tested. */
+        private final long _lo;
+        /** Unit after the last tested. */
+        private final long _hi;
+    }
+
+}
@@ -0,0 +1,112 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+import static enigma.KeySearchTest.indices;
+import static enigma.KeySearchTest.smallMachine;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author rw
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** A plaintext for the tests. */
+    private static final String PLAIN =
+        "WETTERVORHERSAGEBISKAYAREGENKEINEFEINDBEWEGUNG";
+
+    /** Return the rotors of M named NAMES, in order. */
+    private static Rotor[] rotors(Machine m, String... names) {
+        Rotor[] result = new Rotor[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            for (Rotor rotor : m.allRotors()) {
+                if (rotor.name().equals(names[i])) {
+                    result[i] = rotor;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Check that the stops of BOMBE for the rotors of M named NAMES
+     *  include SETTINGS, and that each stop's settings line converts
+     *  CIPHERTEXT[OFFSET .. OFFSET + CRIB.length() - 1] to CRIB. */
+    private void checkStops(Bombe bombe, Machine m, String settings,
+                            String ciphertext, String crib, int offset,
+                            String... names) {
+        List<Rotor[]> orders =
+            Collections.singletonList(rotors(m, names));
+        List<Bombe.Stop> stops = bombe.search(orders, new ForkJoinPool(2));
+        assertEquals(26 * 26, bombe.tested());
+        assertTrue(bombe.rate() > 0);
+        boolean found = false;
+        for (Bombe.Stop stop : stops) {
+            Machine check = smallMachine();
+            String line = stop.toString();
+            check.parseSettings(line);
+            String text = check.convert(ciphertext);
+            if (text.substring(offset, offset + crib.length())
+                .equals(crib)) {
+                found |= line.startsWith(settings);
+            }
+        }
+        assertTrue(stops.toString(), found);
+    }
+
+    @Test
+    public void checkFindsPlugboard() {
+        Machine m = smallMachine();
+        m.parseSettings("* B III I QK (AT) (BL) (EZ) (RW) (SX)");
+        String ciphertext = m.convert(PLAIN);
+        Machine search = smallMachine();
+        Bombe bombe = new Bombe(search, indices(ciphertext),
+                                indices(PLAIN.substring(0, 26)), 0);
+        checkStops(bombe, search, "* B III I QK", ciphertext,
+                   PLAIN.substring(0, 26), 0, "B", "III", "I");
+    }
+
+    @Test
+    public void checkOffset() {
+        Machine m = smallMachine();
+        m.parseSettings("* C V II BZ (AQ) (EP) (TX)");
+        String ciphertext = m.convert(PLAIN);
+        Machine search = smallMachine();
+        Bombe bombe = new Bombe(search, indices(ciphertext),
+                                indices(PLAIN.substring(16, 42)), 16);
+        checkStops(bombe, search, "* C V II BZ", ciphertext,
+                   PLAIN.substring(16, 42), 16, "C", "V", "II");
+    }
+
+    @Test
+    public void checkAllOrders() {
+        Machine m = smallMachine();
+        m.parseSettings("* B IV II AA (GU) (NY)");
+        String ciphertext = m.convert(PLAIN);
+        Bombe bombe = new Bombe(smallMachine(), indices(ciphertext),
+                                indices(PLAIN.substring(0, 30)), 0);
+        List<Bombe.Stop> stops = bombe.search(ForkJoinPool.commonPool());
+        assertEquals(2 * 5 * 4 * 26 * 26, bombe.tested());
+        boolean found = false;
+        for (Bombe.Stop stop : stops) {
+            found |= stop.toString().startsWith("* B IV II AA (GU) (NY)");
+        }
+        assertTrue(stops.toString(), found);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkCribOutsideCiphertext() {
+        new Bombe(smallMachine(), indices("ABC"), indices("BC"), 2);
+    }
+
+}
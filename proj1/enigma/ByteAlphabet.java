@@ -0,0 +1,138 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The alphabet of the 256 byte values, for converting binary data.  The
+ *  byte B has index B and is represented by the character FIRST + B, so
+ *  that no byte is confused with the parentheses and whitespace of cycle
+ *  and settings notation.  In configuration files and settings lines,
+ *  bytes are written as pairs of hexadecimal digits (see decode).
+ *  @author rw
+ */
+class ByteAlphabet extends Alphabet {
+
+    /** The size of my alphabet. */
+    static final int SIZE = 256;
+
+    /** The character representing byte 0. */
+    static final char FIRST = '\u0100';
+
+    /** A new alphabet of all byte values in order. */
+    ByteAlphabet() {
+        super(chars());
+    }
+
+    /** Return the characters representing all byte values, in order. */
+    private static String chars() {
+        StringBuilder chars = new StringBuilder(SIZE);
+        for (int b = 0; b < SIZE; b += 1) {
+            chars.append((char) (FIRST + b));
+        }
+        return chars.toString();
+    }
+
+    /** Returns the size of the alphabet. */
+    @Override
+    final int size() {
+        return SIZE;
+    }
+
+    /** Returns true if C is in this alphabet. */
+    @Override
+    final boolean contains(int c) {
+        return c >= FIRST && c < FIRST + SIZE;
+    }
+
+    /** Returns character number INDEX in the alphabet, where
+     *  0 <= INDEX < size(). */
+    @Override
+    final char toChar(int index) {
+        if (index < 0 || index >= SIZE) {
+            throw error("character index out of range");
+        }
+        return (char) (FIRST + index);
+    }
+
+    /** Returns the index of character C, which must be in the alphabet. */
+    @Override
+    final int toInt(int c) {
+        if (!contains(c)) {
+            throw error("character not in alphabet");
+        }
+        return c - FIRST;
+    }
+
+    /** Return TEXT, part of a configuration file or settings line, with
+     *  each pair of hexadecimal digits (0-9, a-f or A-F) replaced by the
+     *  character representing the byte they denote.  Other characters
+     *  (such as parentheses and whitespace) are unchanged. */
+    static String decode(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i += 1) {
+            int hi = hexDigit(text.charAt(i));
+            if (hi == -1) {
+                result.append(text.charAt(i));
+                continue;
+            }
+            int lo = i + 1 < text.length() ? hexDigit(text.charAt(i + 1)) : -1;
+            if (lo == -1) {
+                throw error("odd number of hexadecimal digits in %s", text);
+            }
+            result.append((char) (FIRST + hi * 16 + lo));
+            i += 1;
+        }
+        return result.toString();
+    }
+
+    /** Return the value of the hexadecimal digit C, or -1 if C is not one
+     *  of 0-9, a-f or A-F.  (Character.digit would also accept the
+     *  digits of other scripts.) */
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /** Return the settings line LINE for a machine with NUMROTORS slots,
+     *  in which the rotor positions, ring settings and plugboard cycles
+     *  are in hexadecimal, with those decoded (see decode).  LINE is
+     *  divided as Machine.parseSettings divides it: the plugboard begins
+     *  at the first '(', and the words before it are separated by any
+     *  whitespace; the '*' and rotor names are left as they are. */
+    static String decodeSettings(String line, int numRotors) {
+        int plugboard = line.indexOf('(');
+        if (plugboard < 0) {
+            plugboard = line.length();
+        }
+        StringBuilder result = new StringBuilder(line.length());
+        int words = 0;
+        for (int i = 0; i < plugboard; ) {
+            if (Character.isWhitespace(line.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int end = i;
+            while (end < plugboard
+                   && !Character.isWhitespace(line.charAt(end))) {
+                end += 1;
+            }
+            if (words > 0) {
+                result.append(' ');
+            }
+            String word = line.substring(i, end);
+            result.append(words > numRotors ? decode(word) : word);
+            words += 1;
+            i = end;
+        }
+        if (plugboard < line.length()) {
+            result.append(' ').append(decode(line.substring(plugboard)));
+        }
+        return result.toString();
+    }
+
+}
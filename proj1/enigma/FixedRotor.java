@@ -1,5 +1,7 @@
 package enigma;
 
+import java.nio.IntBuffer;
+
 import static enigma.EnigmaException.*;
 
 /** Class that represents a rotor that has no ratchet and does not advance.
@@ -15,4 +17,26 @@ class FixedRotor extends Rotor {
     FixedRotor(String name, Permutation perm, String notches) {
         super(name, perm, notches);
     }
+
+    /** A non-moving rotor named NAME whose permutation is given by the
+     *  cycles CYCLES over the alphabet ALPHA, parsed when first needed. */
+    FixedRotor(String name, String cycles, Alphabet alpha, String notches) {
+        super(name, cycles, alpha, notches);
+    }
+
+    /** A non-moving rotor named NAME whose permutation maps each index K
+     *  of the alphabet ALPHA to WIRING.get(K), read when first needed. */
+    FixedRotor(String name, IntBuffer wiring, Alphabet alpha, String notches) {
+        super(name, wiring, alpha, notches);
+    }
+
+    /** A copy of BASE with ring RING (see Rotor(Rotor, int)). */
+    FixedRotor(Rotor base, int ring) {
+        super(base, ring);
+    }
+
+    @Override
+    Rotor ringed(int ring) {
+        return new FixedRotor(this, ring);
+    }
 }
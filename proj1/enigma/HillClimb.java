@@ -0,0 +1,496 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only attack on the keys of a machine, in two phases.
+ *  First, rank: every order of the machine's rotors (as in KeySearch) is
+ *  tried at every starting position with no plugboard, and the
+ *  candidates whose decryptions have the highest index of coincidence
+ *  are kept; the plugboard disturbs the statistics of the decryption, but
+ *  less than a wrong rotor position does.  Then, climb: for each
+ *  candidate, the plugboard is found by hill-climbing on the tetragram
+ *  score of the decryption, trying each pair of characters to plug or
+ *  unplug and keeping any change that raises the score, from several
+ *  starting plugboards (restarts).  Both phases run on a fork-join pool,
+ *  the climb with one task per candidate and restart.
+ *
+ *  While climbing, the rotors stay at the candidate's positions, so a
+ *  climb first compiles the machine's conversion table at each step of
+ *  the ciphertext (without a plugboard); decrypting with plugboard P is
+ *  then P(T_K(P(C_K))) at each step K, three array loads, into an int[]
+ *  that is scored directly.
+ *  @author rw
+ */
+class HillClimb {
+
+    /** Largest number of positions ranked by one task without dividing
+     *  it. */
+    static final int LEAF_POSITIONS = 1 << 12;
+
+    /** Largest number of positions decrypted together by a ranking
+     *  task. */
+    static final int BATCH_LANES = 1 << 8;
+
+    /** Machine whose keys are searched. */
+    private final Machine _machine;
+    /** Ciphertext, as indices. */
+    private final int[] _ciphertext;
+    /** Statistics of the plaintext language. */
+    private final Tetragrams _tetragrams;
+    /** Size of the alphabet. */
+    private final int _size;
+    /** Number of rotor slots. */
+    private final int _numRotors;
+    /** Number of positions in a unit: the combinations of settings of the
+     *  rotors in slots 2 and after. */
+    private final long _unitPositions;
+    /** The machine's plugboard with nothing plugged. */
+    private final Permutation _unplugged;
+
+    /** Rotor orders ranked by the current ranking. */
+    private List<Rotor[]> _orders;
+    /** Maximum number of candidates kept by the current ranking. */
+    private int _keep;
+    /** Candidates kept by the current ranking. */
+    private List<Candidate> _candidates;
+    /** Candidates climbed by the current climb. */
+    private List<Candidate> _climbing;
+    /** Number of restarts per candidate of the current climb. */
+    private int _restarts;
+    /** Best solution found by the current climb. */
+    private Solution _best;
+    /** Number of decryptions evaluated by the current ranking or climb. */
+    private LongAdder _evaluations;
+    /** Duration of the last ranking or climb, in nanoseconds. */
+    private long _nanos;
+
+    /** An attack on the keys of MACHINE under which CIPHERTEXT (indices
+     *  into MACHINE's alphabet) decrypts to text in the language whose
+     *  statistics are TETRAGRAMS.  MACHINE's plugboard is ignored. */
+    HillClimb(Machine machine, int[] ciphertext, Tetragrams tetragrams) {
+        if (tetragrams.size() != machine.alphabet().size()) {
+            throw error("tetragram statistics are for another alphabet");
+        }
+        if (ciphertext.length < 4) {
+            throw error("ciphertext too short to score");
+        }
+        _machine = machine;
+        _ciphertext = ciphertext;
+        _tetragrams = tetragrams;
+        _size = machine.alphabet().size();
+        _numRotors = machine.numRotors();
+        long unit = 1;
+        for (int k = 2; k < _numRotors; k += 1) {
+            unit = Math.multiplyExact(unit, _size);
+        }
+        _unitPositions = unit;
+        _unplugged = new Permutation("", machine.alphabet());
+    }
+
+    /** Return the number of coincidences in the first LENGTH characters
+     *  of TEXT (indices into an alphabet of COUNTS.length characters):
+     *  the sum over characters of N(N - 1), where N is the number of
+     *  times the character occurs.  COUNTS is used as scratch space. */
+    static long coincidences(int[] text, int length, int[] counts) {
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < length; i += 1) {
+            counts[text[i]] += 1;
+        }
+        long sum = 0;
+        for (int n : counts) {
+            sum += (long) n * (n - 1);
+        }
+        return sum;
+    }
+
+    /** Return the index of coincidence of the first LENGTH characters of
+     *  TEXT, indices into an alphabet of SIZE characters: the probability
+     *  that two of them chosen at random are the same, times SIZE (so
+     *  that uniformly random text scores about 1). */
+    static double coincidence(int[] text, int length, int size) {
+        long pairs = (long) length * (length - 1);
+        return pairs == 0 ? 0
+            : (double) coincidences(text, length, new int[size]) * size
+                / pairs;
+    }
+
+    /** Rank every position of every order of my machine's rotors on POOL,
+     *  and return the best KEEP (or all, if fewer), best first. */
+    List<Candidate> rank(ForkJoinPool pool, int keep) {
+        return rank(KeySearch.orders(_machine), pool, keep);
+    }
+
+    /** Rank every position of each of the rotor orders ORDERS (each a
+     *  reflector, fixed rotors and moving rotors for my machine's slots)
+     *  on POOL, and return the best KEEP (or all, if fewer), best
+     *  first. */
+    List<Candidate> rank(List<Rotor[]> orders, ForkJoinPool pool,
+                         int keep) {
+        _orders = orders;
+        _keep = keep;
+        _candidates = new ArrayList<>();
+        _evaluations = new LongAdder();
+        long start = System.nanoTime();
+        pool.invoke(new RankTask(0, (long) orders.size() * _size));
+        _nanos = System.nanoTime() - start;
+        Collections.sort(_candidates);
+        if (_candidates.size() > keep) {
+            _candidates = new ArrayList<>(_candidates.subList(0, keep));
+        }
+        return _candidates;
+    }
+
+    /** Climb from each of CANDIDATES, RESTARTS times each (the first from
+     *  an empty plugboard, the others from random ones), on POOL, and
+     *  return the solution with the highest score. */
+    Solution climb(List<Candidate> candidates, ForkJoinPool pool,
+                   int restarts) {
+        if (candidates.isEmpty() || restarts < 1) {
+            throw error("nothing to climb from");
+        }
+        _climbing = candidates;
+        _restarts = restarts;
+        _best = null;
+        _evaluations = new LongAdder();
+        long start = System.nanoTime();
+        pool.invoke(new ClimbTask(0, (long) candidates.size() * restarts));
+        _nanos = System.nanoTime() - start;
+        return _best;
+    }
+
+    /** Return the number of decryptions evaluated by the last ranking or
+     *  climb. */
+    long evaluations() {
+        return _evaluations.sum();
+    }
+
+    /** Return the number of decryptions evaluated per second by the last
+     *  ranking or climb. */
+    double rate() {
+        return evaluations() * 1e9 / Math.max(_nanos, 1);
+    }
+
+    /** A rotor order and starting position, ranked by the number of
+     *  coincidences in the decryption without a plugboard. */
+    static class Candidate implements Comparable<Candidate> {
+
+        /** The candidate with rotors ROTORS, number INDEX in the ranking's
+         *  orders, at settings SETTINGS, whose decryption has COINCIDENCES
+         *  coincidences. */
+        Candidate(long index, Rotor[] rotors, int[] settings,
+                  long coincidences) {
+            _index = index;
+            _rotors = rotors;
+            _settings = settings;
+            _coincidences = coincidences;
+        }
+
+        /** Return my rotors, reflector first. */
+        Rotor[] rotors() {
+            return _rotors;
+        }
+
+        /** Return the settings of my rotors, reflector first. */
+        int[] settings() {
+            return _settings;
+        }
+
+        /** Return the number of coincidences in my decryption. */
+        long coincidences() {
+            return _coincidences;
+        }
+
+        /** Candidates with more coincidences come first. */
+        @Override
+        public int compareTo(Candidate other) {
+            if (_coincidences != other._coincidences) {
+                return Long.compare(other._coincidences, _coincidences);
+            }
+            if (_index != other._index) {
+                return Long.compare(_index, other._index);
+            }
+            return Arrays.compare(_settings, other._settings);
+        }
+
+        /** Position of my rotor order in the ranking's orders. */
+        private final long _index;
+        /** My rotors, reflector first. */
+        private final Rotor[] _rotors;
+        /** Settings of _rotors. */
+        private final int[] _settings;
+        /** Number of coincidences in my decryption. */
+        private final long _coincidences;
+    }
+
+    /** The result of a climb: a candidate, with the plugboard found for
+     *  it and the score of the decryption. */
+    static class Solution {
+
+        /** The solution for CANDIDATE with plugboard PLUGBOARD, whose
+         *  decryption scores SCORE. */
+        Solution(Candidate candidate, Permutation plugboard, float score) {
+            _candidate = candidate;
+            _plugboard = plugboard;
+            _score = score;
+        }
+
+        /** Return my candidate. */
+        Candidate candidate() {
+            return _candidate;
+        }
+
+        /** Return my plugboard. */
+        Permutation plugboard() {
+            return _plugboard;
+        }
+
+        /** Return the tetragram score of my decryption. */
+        float score() {
+            return _score;
+        }
+
+        /** Return the settings line for me. */
+        @Override
+        public String toString() {
+            return Machine.settingsLine(_plugboard.alphabet(),
+                                        _candidate.rotors(),
+                                        _candidate.settings(), _plugboard);
+        }
+
+        /** My candidate. */
+        private final Candidate _candidate;
+        /** My plugboard. */
+        private final Permutation _plugboard;
+        /** Score of my decryption. */
+        private final float _score;
+    }
+
+    /** Rank the positions in units LO .. HI-1, using a fork of my
+     *  machine, adding the best _keep of them to _candidates.  Unit U
+     *  consists of the positions with the rotor order _orders[U / _size]
+     *  and the setting U % _size for the rotor in slot 1.  The positions
+     *  are decrypted BATCH_LANES at a time with Machine.convertBatch. */
+    private void rank(long lo, long hi) {
+        Machine machine = _machine.fork();
+        machine.setPlugboard(_unplugged);
+        int lanes = (int) Math.min(BATCH_LANES, _unitPositions);
+        MachineStateBatch batch = new MachineStateBatch(_numRotors, lanes);
+        int[][] starts = new int[lanes][_numRotors];
+        int[][] texts = new int[lanes][_ciphertext.length];
+        int[] settings = new int[_numRotors];
+        int[] counts = new int[_size];
+        PriorityQueue<Candidate> best =
+            new PriorityQueue<>(Collections.reverseOrder());
+        Rotor[] current = null;
+        long evaluations = 0;
+        for (long u = lo; u < hi; u += 1) {
+            Rotor[] order = _orders.get((int) (u / _size));
+            if (order != current) {
+                machine.insertRotors(order);
+                current = order;
+            }
+            Arrays.fill(settings, 0);
+            settings[1] = (int) (u % _size);
+            boolean more = true;
+            while (more) {
+                int filled = 0;
+                for (; more && filled < lanes; filled += 1) {
+                    System.arraycopy(settings, 0, starts[filled], 0,
+                                     _numRotors);
+                    batch.set(filled, settings);
+                    more = next(settings);
+                }
+                machine.convertBatch(_ciphertext, batch, texts);
+                evaluations += filled;
+                for (int l = 0; l < filled; l += 1) {
+                    long value = coincidences(texts[l], texts[l].length,
+                                              counts);
+                    if (best.size() < _keep
+                        || value > best.peek().coincidences()) {
+                        best.add(new Candidate(u / _size, order,
+                                               starts[l].clone(), value));
+                        if (best.size() > _keep) {
+                            best.poll();
+                        }
+                    }
+                }
+            }
+        }
+        _evaluations.add(evaluations);
+        synchronized (_candidates) {
+            _candidates.addAll(best);
+        }
+    }
+
+    /** Advance SETTINGS[2 ..] to the next combination of settings, the
+     *  rightmost changing fastest.  Return false if they wrap around to
+     *  all zeros. */
+    private boolean next(int[] settings) {
+        for (int k = settings.length - 1; k >= 2; k -= 1) {
+            settings[k] += 1;
+            if (settings[k] < _size) {
+                return true;
+            }
+            settings[k] = 0;
+        }
+        return false;
+    }
+
+    /** Climb from candidate number JOB / _restarts of _climbing, with
+     *  restart number JOB % _restarts, and record the result in _best if
+     *  it is better. */
+    private void climb(long job) {
+        Candidate candidate = _climbing.get((int) (job / _restarts));
+        int restart = (int) (job % _restarts);
+        int n = _size, length = _ciphertext.length;
+
+        Machine machine = _machine.fork();
+        machine.setPlugboard(_unplugged);
+        machine.insertRotors(candidate.rotors());
+        machine.restore(candidate.settings());
+        int[] tables = new int[length * n];
+        for (int k = 0; k < length; k += 1) {
+            machine.rotate();
+            machine.compileTable(tables, k * n);
+        }
+
+        int[] plug = new int[n];
+        for (int a = 0; a < n; a += 1) {
+            plug[a] = a;
+        }
+        if (restart > 0) {
+            Random random = new Random(job);
+            for (int p = 0; p < n / 5; p += 1) {
+                plug(plug, random.nextInt(n), random.nextInt(n));
+            }
+        }
+        int[] trial = new int[n];
+        int[] text = new int[length];
+        long evaluations = 1;
+        float score = evaluate(tables, plug, text);
+        for (boolean improved = true; improved; ) {
+            improved = false;
+            for (int a = 0; a < n; a += 1) {
+                for (int b = a + 1; b < n; b += 1) {
+                    System.arraycopy(plug, 0, trial, 0, n);
+                    if (trial[a] == b) {
+                        unplug(trial, a);
+                    } else {
+                        plug(trial, a, b);
+                    }
+                    evaluations += 1;
+                    float trialScore = evaluate(tables, trial, text);
+                    if (trialScore > score) {
+                        score = trialScore;
+                        int[] swap = plug;
+                        plug = trial;
+                        trial = swap;
+                        improved = true;
+                    }
+                }
+            }
+        }
+        _evaluations.add(evaluations);
+
+        Solution solution =
+            new Solution(candidate, new Permutation(plug, _machine.alphabet()),
+                         score);
+        synchronized (this) {
+            if (_best == null || solution.score() > _best.score()) {
+                _best = solution;
+            }
+        }
+    }
+
+    /** Return the score of the decryption of my ciphertext with the
+     *  conversion tables TABLES (one per step, as compiled by climb) and
+     *  the plugboard PLUG, using TEXT to hold the decryption. */
+    private float evaluate(int[] tables, int[] plug, int[] text) {
+        int n = _size;
+        for (int k = 0, off = 0; k < text.length; k += 1, off += n) {
+            text[k] = plug[tables[off + plug[_ciphertext[k]]]];
+        }
+        return _tetragrams.score(text, text.length);
+    }
+
+    /** Plug A to B in the plugboard PLUG, first unplugging both from
+     *  anything else.  Does nothing if A == B. */
+    private static void plug(int[] plug, int a, int b) {
+        if (a != b) {
+            unplug(plug, a);
+            unplug(plug, b);
+            plug[a] = b;
+            plug[b] = a;
+        }
+    }
+
+    /** Unplug A in the plugboard PLUG. */
+    private static void unplug(int[] plug, int a) {
+        plug[plug[a]] = plug[a];
+        plug[a] = a;
+    }
+
+    /** A task ranking the positions in a range of units (see rank(long,
+     *  long)), dividing it among subtasks if it is large. */
+    private class RankTask extends RecursiveAction {
+
+        /** A task ranking units LO .. HI-1. */
+        RankTask(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= 1
+                || (_hi - _lo) * _unitPositions <= LEAF_POSITIONS) {
+                rank(_lo, _hi);
+            } else {
+                long mid = (_lo + _hi) >>> 1;
+                invokeAll(new RankTask(_lo, mid), new RankTask(mid, _hi));
+            }
+        }
+
+        /** First unit ranked. */
+        private final long _lo;
+        /** Unit after the last ranked. */
+        private final long _hi;
+    }
+
+    /** A task performing climbs LO .. HI-1 (see climb(long)), one subtask
+     *  per climb. */
+    private class ClimbTask extends RecursiveAction {
+
+        /** A task performing climbs LO .. HI-1. */
+        ClimbTask(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= 1) {
+                climb(_lo);
+            } else {
+                long mid = (_lo + _hi) >>> 1;
+                invokeAll(new ClimbTask(_lo, mid), new ClimbTask(mid, _hi));
+            }
+        }
+
+        /** First climb performed. */
+        private final long _lo;
+        /** Climb after the last performed. */
+        private final long _hi;
+    }
+
+}
@@ -0,0 +1,118 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.KeySearchTest.indices;
+import static enigma.KeySearchTest.smallMachine;
+
+/** The suite of all JUnit tests for the HillClimb and Tetragrams
+ *  classes.
+ *  @author rw
+ */
+public class HillClimbTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** A sample of English, from which the tests learn tetragrams. */
+    static final String SAMPLE =
+        "THEWEATHERFORECASTFORTHEBAYOFBISCAYISRAINANDNOENEMYMOVEMENTHAS"
+        + "BEENSEENSINCETHEEVENINGOFTHESECONDDAYTHECONVOYISEXPECTEDTOREACH"
+        + "THEHARBOURBEFOREMIDNIGHTANDTHEESCORTWILLRETURNTOITSSTATIONATFIRST"
+        + "LIGHTALLSHIPSARETOMAINTAINRADIOSILENCEUNTILTHEYHAVEPASSEDTHELINE"
+        + "OFTHEOUTERMINEFIELDSTHEMESSAGESOFTHEFLEETAREREADEVERYMORNINGBYTHE"
+        + "OFFICERSOFTHEWATCHWHOREPORTANYCHANGEINTHEORDERSTOTHECAPTAINTHERE"
+        + "ISNOREASONTOBELIEVETHATTHEENEMYKNOWSTHEPOSITIONOFTHESHIPSORTHAT"
+        + "THEYHAVEREADANYOFTHEMESSAGESSENTINTHELASTWEEKTHEWINDISFROMTHEWEST"
+        + "ANDTHESEAISCALMTHEREWILLBEFOGINTHEMORNINGANDTHEVISIBILITYWILLBE"
+        + "POORUNTILNOONTHESUPPLYSHIPWILLMEETTHEBOATSATTHEAGREEDPOINTANDWILL"
+        + "TRANSFERFUELANDFOODTOTHEMBEFORETHEYRETURNTOTHEIRPATROLAREASTHE"
+        + "COMMANDERWISHESTOTHANKTHECREWSFORTHEIREFFORTSDURINGTHELASTMONTH";
+
+    @Test
+    public void checkCoincidence() {
+        assertEquals(4, HillClimb.coincidences(indices("AABB"), 4,
+                                               new int[26]));
+        assertEquals(4.0 * 26 / 12,
+                     HillClimb.coincidence(indices("AABB"), 4, 26), 1e-9);
+        assertEquals(0, HillClimb.coincidence(indices("ABCDEFGH"), 8, 26),
+                     1e-9);
+        assertTrue(HillClimb.coincidence(indices(SAMPLE), SAMPLE.length(),
+                                         26) > 1.5);
+    }
+
+    @Test
+    public void checkTetragrams() {
+        int[] sample = indices(SAMPLE);
+        Tetragrams tetragrams = new Tetragrams(sample, sample.length, 26);
+        assertEquals(26, tetragrams.size());
+        Machine m = smallMachine();
+        m.parseSettings("* B I II AA");
+        int[] plain = indices(SAMPLE.substring(0, 100));
+        int[] cipher = indices(m.convert(SAMPLE.substring(0, 100)));
+        assertTrue(tetragrams.score(plain, 100)
+                   > tetragrams.score(cipher, 100));
+        assertEquals(Math.log10(0.01 / (sample.length - 3)),
+                     tetragrams.score(indices("QQQQ"), 4), 1e-4);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkTetragramsAlphabetTooLarge() {
+        new Tetragrams(new int[10], 10, ByteAlphabet.SIZE);
+    }
+
+    @Test
+    public void checkRecoversKey() {
+        String key = "* C IV II QF (AT) (EX) (RS)";
+        Machine m = smallMachine();
+        m.parseSettings(key);
+        String plain = SAMPLE.substring(200, 500);
+        String ciphertext = m.convert(plain);
+        int[] cipher = indices(ciphertext);
+        /* Learn from the rest of SAMPLE, so as not to learn the answer. */
+        int[] sample = indices(SAMPLE.substring(0, 200)
+                               + SAMPLE.substring(500));
+        Machine search = smallMachine();
+        HillClimb attack =
+            new HillClimb(search, cipher,
+                          new Tetragrams(sample, sample.length, 26));
+        Rotor[] order = new Rotor[3];
+        for (Rotor rotor : search.allRotors()) {
+            int slot = List.of("C", "IV", "II").indexOf(rotor.name());
+            if (slot >= 0) {
+                order[slot] = rotor;
+            }
+        }
+        List<HillClimb.Candidate> candidates =
+            attack.rank(Collections.singletonList(order), new ForkJoinPool(2),
+                        20);
+        assertEquals(20, candidates.size());
+        assertEquals(26 * 26, attack.evaluations());
+        for (int i = 1; i < candidates.size(); i += 1) {
+            assertTrue(candidates.get(i - 1).coincidences()
+                       >= candidates.get(i).coincidences());
+        }
+        HillClimb.Solution solution =
+            attack.climb(candidates, ForkJoinPool.commonPool(), 2);
+        assertEquals(key, solution.toString());
+        assertTrue(attack.rate() > 0);
+        Machine check = smallMachine();
+        check.parseSettings(solution.toString());
+        assertEquals(plain, check.convert(ciphertext));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkAlphabetMismatch() {
+        new HillClimb(smallMachine(), indices("ABCDEFGH"),
+                      new Tetragrams(indices(SAMPLE), SAMPLE.length(), 27));
+    }
+
+}
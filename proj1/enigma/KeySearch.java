@@ -0,0 +1,388 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A search of the keys of a machine for those under which a ciphertext
+ *  converts to a known plaintext (a crib) at a given offset.  A key is an
+ *  order of rotors from the machine's catalog (a reflector, then fixed
+ *  rotors, then one moving rotor per pawl, as Machine.insertRotors
+ *  requires) together with their settings; the plugboard is given, not
+ *  searched.  Keys are tested in parallel on a fork-join pool.  Each task
+ *  has its own fork of the machine and steps an int[] of rotor settings
+ *  through its share of the keys like an odometer, restoring the fork to
+ *  each in turn, so testing a key allocates nothing and parses nothing.
+ *
+ *  A search may also cover ring settings.  A ring setting changes only
+ *  where a rotor's notches fall relative to its wiring, and the notches
+ *  of the fixed rotors and of the leftmost moving rotor never move
+ *  anything (see Machine.rotate), so changing the ring and the setting
+ *  of one of those rotors together gives the same machine.  Only the
+ *  rings of the other moving rotors are therefore searched, multiplying
+ *  the keys by at most the alphabet size once per pawl after the first,
+ *  rather than once per slot after the reflector.  The searched rings
+ *  are not pruned by what happens while the crib is converted: a ring
+ *  that moves no turnover within the crib may still move one after it,
+ *  so keys that agree over the crib need not agree over the message.
+ *
+ *  Distinct keys may still convert the whole ciphertext identically,
+ *  because the rotors' positions before it matter only through the
+ *  positions they step to: a turnover at the first step gives the same
+ *  positions as the setting one further to the left without it, and so
+ *  may a double step.  Of the keys found that have the same rotors and
+ *  pass through the same positions while the whole ciphertext is
+ *  converted, only the first in the order of the results is reported,
+ *  standing for them all.
+ *  @author rw
+ */
+class KeySearch {
+
+    /** Largest number of keys tested by one task without dividing it. */
+    static final int LEAF_KEYS = 1 << 14;
+
+    /** Machine whose keys are searched. */
+    private final Machine _machine;
+    /** Plugboard used with every key. */
+    private final Permutation _plugboard;
+    /** Ciphertext, as indices. */
+    private final int[] _ciphertext;
+    /** Known plaintext of part of _ciphertext, as indices. */
+    private final int[] _crib;
+    /** Index in _ciphertext of the character corresponding to _crib[0]. */
+    private final int _offset;
+    /** Size of the alphabet. */
+    private final int _size;
+    /** Number of rotor slots. */
+    private final int _numRotors;
+    /** Every possible order of rotors in the slots. */
+    private final List<Rotor[]> _orders;
+    /** Number of keys in a unit: the combinations of settings of the
+     *  rotors in slots 2 and after. */
+    private final long _unitKeys;
+    /** Number of rotors, at the right, whose rings are searched. */
+    private final int _ringSlots;
+    /** Number of combinations of the searched rings. */
+    private final long _ringCombinations;
+    /** Number of keys I test. */
+    private final long _keys;
+
+    /** Maximum number of keys recorded by the current search. */
+    private int _limit;
+    /** Keys found by the current search. */
+    private List<Key> _found;
+    /** Number of keys tested by the current search. */
+    private LongAdder _tested;
+    /** Duration of the last search, in nanoseconds. */
+    private long _nanos;
+
+    /** A search of the keys of MACHINE, with plugboard PLUGBOARD and all
+     *  rings at 0, for those that convert
+     *  CIPHERTEXT[OFFSET .. OFFSET + CRIB.length - 1] (indices into
+     *  MACHINE's alphabet) to CRIB. */
+    KeySearch(Machine machine, Permutation plugboard, int[] ciphertext,
+              int[] crib, int offset) {
+        this(machine, plugboard, ciphertext, crib, offset, false);
+    }
+
+    /** A search as above that also searches ring settings iff RINGS (see
+     *  the class comment). */
+    KeySearch(Machine machine, Permutation plugboard, int[] ciphertext,
+              int[] crib, int offset, boolean rings) {
+        if (crib.length == 0 || offset < 0
+            || offset + crib.length > ciphertext.length) {
+            throw error("crib does not lie within the ciphertext");
+        }
+        _machine = machine;
+        _plugboard = plugboard;
+        _ciphertext = ciphertext;
+        _crib = crib;
+        _offset = offset;
+        _size = machine.alphabet().size();
+        _numRotors = machine.numRotors();
+        _orders = orders(machine);
+        long unit = 1;
+        for (int k = 2; k < _numRotors; k += 1) {
+            unit = Math.multiplyExact(unit, _size);
+        }
+        _unitKeys = unit;
+        _ringSlots = rings ? Math.max(machine.numPawls() - 1, 0) : 0;
+        long combinations = 1;
+        for (int k = 0; k < _ringSlots; k += 1) {
+            combinations = Math.multiplyExact(combinations, _size);
+        }
+        _ringCombinations = combinations;
+        _keys = Math.multiplyExact(units(), _unitKeys);
+    }
+
+    /** Return every order in which the rotors of MACHINE can fill its
+     *  slots, in the order of its catalog. */
+    static List<Rotor[]> orders(Machine machine) {
+        List<Rotor[]> result = new ArrayList<>();
+        addOrders(machine, new Rotor[machine.numRotors()], 0, result);
+        return result;
+    }
+
+    /** Add to RESULT every order of the rotors of MACHINE that has the
+     *  rotors in ORDER[0 .. K-1] in their slots. */
+    private static void addOrders(Machine machine, Rotor[] order, int k,
+                                  List<Rotor[]> result) {
+        if (k == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        int firstMoving = machine.numRotors() - machine.numPawls();
+        for (Rotor rotor : machine.allRotors()) {
+            boolean fits = k == 0 ? rotor.reflecting()
+                : !rotor.reflecting() && rotor.rotates() == (k >= firstMoving);
+            for (int i = 0; fits && i < k; i += 1) {
+                fits = order[i] != rotor;
+            }
+            if (fits) {
+                order[k] = rotor;
+                addOrders(machine, order, k + 1, result);
+            }
+        }
+    }
+
+    /** Return the number of keys I search. */
+    long keys() {
+        return _keys;
+    }
+
+    /** Test all my keys on POOL and return those under which my
+     *  ciphertext converts to my crib, in the order of their rotors in the
+     *  machine's catalog and then of their settings.  If there are more
+     *  than LIMIT such keys, returns only LIMIT of them (which ones
+     *  depends on the order in which tasks run). */
+    List<Key> search(ForkJoinPool pool, int limit) {
+        _limit = limit;
+        _found = new ArrayList<>();
+        _tested = new LongAdder();
+        long start = System.nanoTime();
+        pool.invoke(new SearchTask(0, units()));
+        _nanos = System.nanoTime() - start;
+        Collections.sort(_found);
+        return _found;
+    }
+
+    /** Return the number of keys tested by the last search. */
+    long tested() {
+        return _tested.sum();
+    }
+
+    /** Return the number of keys tested per second by the last search. */
+    double rate() {
+        return tested() * 1e9 / Math.max(_nanos, 1);
+    }
+
+    /** Return the number of units of keys (see search(long, long)). */
+    private long units() {
+        return Math.multiplyExact((long) _orders.size() * _size,
+                                  _ringCombinations);
+    }
+
+    /** Test the keys in units LO .. HI-1, using a fork of my machine.  Unit
+     *  U consists of the keys with the rotors number U / _size (see
+     *  rotors) and the setting U % _size for the rotor in slot 1. */
+    private void search(long lo, long hi) {
+        Machine machine = _machine.fork();
+        machine.setPlugboard(_plugboard);
+        int[] settings = new int[_numRotors];
+        Rotor[] rotors = new Rotor[_numRotors];
+        long current = -1;
+        long tested = 0;
+        for (long u = lo; u < hi; u += 1) {
+            long index = u / _size;
+            if (index != current) {
+                rotors(index, rotors);
+                machine.insertRotors(rotors);
+                current = index;
+            }
+            Arrays.fill(settings, 0);
+            settings[1] = (int) (u % _size);
+            do {
+                tested += 1;
+                if (matches(machine, settings)) {
+                    found(index, rotors, settings, machine);
+                }
+            } while (next(settings));
+        }
+        _tested.add(tested);
+    }
+
+    /** Fill ROTORS with the rotors numbered INDEX: the rotor order
+     *  _orders[INDEX / _ringCombinations], with the rings of its last
+     *  _ringSlots rotors given by the digits of INDEX % _ringCombinations
+     *  in base _size (the rightmost rotor's least significant). */
+    private void rotors(long index, Rotor[] rotors) {
+        Rotor[] order = _orders.get((int) (index / _ringCombinations));
+        long rings = index % _ringCombinations;
+        int first = rotors.length - _ringSlots;
+        for (int k = rotors.length - 1; k >= 0; k -= 1) {
+            int ring = 0;
+            if (k >= first) {
+                ring = (int) (rings % _size);
+                rings /= _size;
+            }
+            rotors[k] = order[k].withRing(ring);
+        }
+    }
+
+    /** Return true iff MACHINE, with its rotors set to SETTINGS, converts
+     *  my ciphertext at my offset to my crib. */
+    private boolean matches(Machine machine, int[] settings) {
+        machine.restore(settings);
+        if (_offset > 0) {
+            machine.advanceBy(_offset);
+        }
+        for (int i = 0; i < _crib.length; i += 1) {
+            if (machine.convert(_ciphertext[_offset + i]) != _crib[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Advance SETTINGS[2 ..] to the next combination of settings, the
+     *  rightmost changing fastest.  Return false if they wrap around to
+     *  all zeros. */
+    private boolean next(int[] settings) {
+        for (int k = settings.length - 1; k >= 2; k -= 1) {
+            settings[k] += 1;
+            if (settings[k] < _size) {
+                return true;
+            }
+            settings[k] = 0;
+        }
+        return false;
+    }
+
+    /** Record the key with the rotors ROTORS, number INDEX (see rotors),
+     *  at SETTINGS, which MACHINE has inserted, unless a key that converts
+     *  the whole ciphertext through the same rotor positions has been
+     *  recorded (in which case the lesser of the two is kept) or _limit
+     *  keys have been. */
+    private void found(long index, Rotor[] rotors, int[] settings,
+                       Machine machine) {
+        int[] path = new int[_ciphertext.length * _numRotors];
+        machine.restore(settings);
+        for (int i = 0; i < _ciphertext.length; i += 1) {
+            machine.rotate();
+            System.arraycopy(machine.snapshot(), 0, path, i * _numRotors,
+                             _numRotors);
+        }
+        Key key = new Key(index, rotors.clone(), settings.clone(), path,
+                          _machine.alphabet());
+        synchronized (_found) {
+            for (int i = 0; i < _found.size(); i += 1) {
+                Key other = _found.get(i);
+                if (key.equivalent(other)) {
+                    if (key.compareTo(other) < 0) {
+                        _found.set(i, key);
+                    }
+                    return;
+                }
+            }
+            if (_found.size() < _limit) {
+                _found.add(key);
+            }
+        }
+    }
+
+    /** A key found by a search: rotors and their settings. */
+    static class Key implements Comparable<Key> {
+
+        /** The key with rotors ROTORS, number INDEX in the search's
+         *  rotors, at settings SETTINGS, over alphabet ALPHABET, whose
+         *  rotors pass through the settings PATH (one after another) while
+         *  the whole ciphertext is converted. */
+        Key(long index, Rotor[] rotors, int[] settings, int[] path,
+            Alphabet alphabet) {
+            _index = index;
+            _rotors = rotors;
+            _settings = settings;
+            _path = path;
+            _alphabet = alphabet;
+        }
+
+        /** Return true iff OTHER has the same rotors as I do, whatever
+         *  their rings, and converts the whole ciphertext through the same
+         *  settings, and therefore converts it in the same way. */
+        boolean equivalent(Key other) {
+            for (int k = 0; k < _rotors.length; k += 1) {
+                if (_rotors[k].base() != other._rotors[k].base()) {
+                    return false;
+                }
+            }
+            return Arrays.equals(_path, other._path);
+        }
+
+        /** Return my rotors, reflector first. */
+        Rotor[] rotors() {
+            return _rotors;
+        }
+
+        /** Return the settings of my rotors, reflector first. */
+        int[] settings() {
+            return _settings;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            if (_index != other._index) {
+                return Long.compare(_index, other._index);
+            }
+            return Arrays.compare(_settings, other._settings);
+        }
+
+        /** Return the settings line for me, without a plugboard. */
+        @Override
+        public String toString() {
+            return Machine.settingsLine(_alphabet, _rotors, _settings, null);
+        }
+
+        /** Position of my rotors in the search's rotors. */
+        private final long _index;
+        /** My rotors, reflector first. */
+        private final Rotor[] _rotors;
+        /** Settings of _rotors. */
+        private final int[] _settings;
+        /** Settings of _rotors during the ciphertext (see Key). */
+        private final int[] _path;
+        /** Alphabet of the settings. */
+        private final Alphabet _alphabet;
+    }
+
+    /** A task testing the keys in a range of units (see search(long,
+     *  long)), dividing it among subtasks if it is large. */
+    private class SearchTask extends RecursiveAction {
+
+        /** A task testing units LO .. HI-1. */
+        SearchTask(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= 1 || (_hi - _lo) * _unitKeys <= LEAF_KEYS) {
+                search(_lo, _hi);
+            } else {
+                long mid = (_lo + _hi) >>> 1;
+                invokeAll(new SearchTask(_lo, mid), new SearchTask(mid, _hi));
+            }
+        }
+
+        /** First unit tested. */
+        private final long _lo;
+        /** Unit after the last tested. */
+        private final long _hi;
+    }
+}
@@ -0,0 +1,161 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySearch class.
+ *  @author rw
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** A plaintext for the tests. */
+    private static final String PLAIN =
+        "WETTERVORHERSAGEBISKAYAREGENKEINEFEINDBEWEGUNG";
+
+    /** Return a 3-slot, 2-pawl machine with reflectors B and C and the
+     *  moving rotors I-V of the naval configuration. */
+    static Machine smallMachine() {
+        List<String> names = Arrays.asList("B", "C", "I", "II", "III", "IV",
+                                           "V");
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (Rotor rotor : MachineTest.navalMachine().allRotors()) {
+            if (names.contains(rotor.name())) {
+                rotors.add(rotor);
+            }
+        }
+        return new Machine(UPPER, 3, 2, rotors);
+    }
+
+    /** Return the indices in UPPER of the letters of TEXT. */
+    static int[] indices(String text) {
+        int[] result = new int[text.length()];
+        UPPER.toInts(text, result);
+        return result;
+    }
+
+    @Test
+    public void checkFindsKey() {
+        Machine m = smallMachine();
+        m.parseSettings("* C IV II QF");
+        String ciphertext = m.convert(PLAIN);
+        int[] cipher = indices(ciphertext);
+        KeySearch search = new KeySearch(smallMachine(),
+                                         new Permutation("", UPPER), cipher,
+                                         indices(PLAIN.substring(0, 12)), 0);
+        assertEquals(2 * 5 * 4 * 26 * 26, search.keys());
+        List<KeySearch.Key> keys = search.search(new ForkJoinPool(3), 10);
+        assertEquals(search.keys(), search.tested());
+        List<String> lines = new ArrayList<>();
+        for (KeySearch.Key key : keys) {
+            lines.add(key.toString());
+        }
+        assertTrue(lines.toString(), lines.contains("* C IV II QF"));
+        for (String line : lines) {
+            Machine check = smallMachine();
+            check.parseSettings(line);
+            assertEquals(PLAIN.substring(0, 12),
+                         check.convert(ciphertext.substring(0, 12)));
+        }
+    }
+
+    @Test
+    public void checkRings() {
+        Machine m = smallMachine();
+        m.parseSettings("* C IV II QF AM");
+        String ciphertext = m.convert(PLAIN);
+        KeySearch search = new KeySearch(smallMachine(),
+                                         new Permutation("", UPPER),
+                                         indices(ciphertext), indices(PLAIN),
+                                         0, true);
+        assertEquals(2 * 5 * 4 * 26 * 26 * 26, search.keys());
+        List<KeySearch.Key> keys = search.search(ForkJoinPool.commonPool(),
+                                                 1000);
+        assertEquals(search.keys(), search.tested());
+        List<String> lines = new ArrayList<>();
+        for (KeySearch.Key key : keys) {
+            lines.add(key.toString());
+        }
+        assertTrue(lines.toString(), lines.contains("* C IV II QF AM"));
+        for (String line : lines) {
+            Machine check = smallMachine();
+            check.parseSettings(line);
+            assertEquals(PLAIN, check.convert(ciphertext));
+        }
+    }
+
+    @Test
+    public void checkRingsShortCrib() {
+        Machine m = smallMachine();
+        m.parseSettings("* C IV II QF AM");
+        String plain = PLAIN + PLAIN + PLAIN;
+        String ciphertext = m.convert(plain);
+        KeySearch search = new KeySearch(smallMachine(),
+                                         new Permutation("", UPPER),
+                                         indices(ciphertext),
+                                         indices(plain.substring(0, 12)),
+                                         0, true);
+        assertEquals(2 * 5 * 4 * 26 * 26 * 26, search.keys());
+        List<KeySearch.Key> keys = search.search(ForkJoinPool.commonPool(),
+                                                 1000);
+        assertEquals(search.keys(), search.tested());
+        List<String> whole = new ArrayList<>();
+        for (KeySearch.Key key : keys) {
+            Machine check = smallMachine();
+            check.parseSettings(key.toString());
+            String text = check.convert(ciphertext);
+            assertEquals(plain.substring(0, 12), text.substring(0, 12));
+            if (text.equals(plain)) {
+                whole.add(key.toString());
+            }
+        }
+        assertTrue(whole.toString(), whole.contains("* C IV II QF AM"));
+        assertTrue(keys.size() > whole.size());
+    }
+
+    @Test
+    public void checkPlugboardAndOffset() {
+        Machine m = smallMachine();
+        m.parseSettings("* B I V AZ (AQ) (EP) (TX)");
+        int[] cipher = indices(m.convert(PLAIN));
+        KeySearch search =
+            new KeySearch(smallMachine(),
+                          new Permutation("(AQ) (EP) (TX)", UPPER), cipher,
+                          indices(PLAIN.substring(20, 32)), 20);
+        List<KeySearch.Key> keys = search.search(ForkJoinPool.commonPool(),
+                                                 10);
+        assertEquals(1, keys.size());
+        assertEquals("* B I V AZ", keys.get(0).toString());
+        assertArrayEquals(new int[] { 0, 0, 25 }, keys.get(0).settings());
+        assertTrue(search.rate() > 0);
+    }
+
+    @Test
+    public void checkLimit() {
+        int[] cipher = indices(PLAIN);
+        KeySearch search = new KeySearch(smallMachine(),
+                                         new Permutation("", UPPER), cipher,
+                                         indices("A"), 0);
+        assertEquals(3, search.search(ForkJoinPool.commonPool(), 3).size());
+        assertEquals(search.keys(), search.tested());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkCribOutsideCiphertext() {
+        new KeySearch(smallMachine(), new Permutation("", UPPER),
+                      indices("ABC"), indices("ABCD"), 0);
+    }
+
+}
@@ -1,8 +1,13 @@
 package enigma;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static enigma.EnigmaException.*;
 
@@ -19,22 +24,115 @@ class Machine {
     private int _pawls;
     /** my collection of all available Rotors */
     private Collection<Rotor> _allRotors;
+    /** Maps the upper-case name of each of _allRotors to that rotor. */
+    private HashMap<String, Rotor> _index;
     /** a Permutation object that represents the plugboard */
     private Permutation _plugboard;
 
 
-    private ArrayList<Rotor> rotorsInUse = new ArrayList<>();
+    /** The rotors in my slots, reflector first.  The array is never
+     *  modified once in use, so that it can be shared with my forks;
+     *  inserting rotors replaces it. */
+    private Rotor[] _rotors = new Rotor[0];
 
+    /** _settings[K] is the current setting of _rotors[K].  This is my only
+     *  state that changes as I convert. */
+    private int[] _settings = new int[0];
+
+    /** Largest number of positions of my moving rotors for which
+     *  setCompiled() compiles tables: enough for the whole stepping
+     *  period of three moving rotors of up to 40 characters. */
+    static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+    /** Number of slots of the table of compiled positions, when it is
+     *  hashed, examined for a position before one is evicted. */
+    private static final int PROBES = 2;
+
+    /** When fewer than one in MIN_HIT_RATIO of the lookups in a hashed
+     *  table of compiled positions return a table, over as many lookups as
+     *  it has slots, it is bypassed for BYPASS_FACTOR times as many
+     *  characters (see _bypass). */
+    private static final int MIN_HIT_RATIO = 2, BYPASS_FACTOR = 63;
+
+    /** When non-null, compiled conversion is on, and each non-null
+     *  _compiled[I] is the complete conversion table of the machine at
+     *  some positions of its rotors.  When _compiledKeys is null, the
+     *  table is dense: I is the index of the positions of my moving
+     *  rotors (see movingIndex), and all the tables are for the positions
+     *  _compiledFixed of my other rotors.  Otherwise, it is hashed: I is
+     *  found from the key of all the positions (see positionKey) by
+     *  probing from a hash of it, and _compiledKeys[I] is that key. */
+    private int[][] _compiled;
+
+    /** The position keys of the tables in a hashed _compiled, or null. */
+    private long[] _compiledKeys;
+
+    /** In a hashed _compiled, _seen[H] is the key of the last position
+     *  without a table whose probes started at slot H, or -1.  A position
+     *  whose probes find no empty slot evicts a table only when it is
+     *  seen twice in a row there, so that a long message, whose
+     *  positions do not recur before they are evicted, is converted as
+     *  if uncompiled rather than compiling a table for every
+     *  character. */
+    private long[] _seen;
+
+    /** Number of lookups in a hashed _compiled, and of those that found
+     *  or compiled a table, since the last check of its hit rate. */
+    private int _lookups, _hits;
+
+    /** Number of characters still to be converted without looking in a
+     *  hashed _compiled.  When positions do not recur before they are
+     *  evicted, as in a message longer than the table's capacity, looking
+     *  them up only slows conversion down, so when few lookups hit, the
+     *  table is set aside for a while and then tried again. */
+    private int _bypass;
+
+    /** The key of the positions of my non-moving rotors (see fixedKey)
+     *  for which a dense _compiled holds tables, or -1 if it holds
+     *  none. */
+    private long _compiledFixed;
 
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
-     *  available rotors. */
+     *  available rotors, no two of which may have the same name (ignoring
+     *  case). */
 
     Machine(Alphabet alpha, int numRotors, int pawls, Collection<Rotor> allRotors) {
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
         _allRotors = allRotors;
+        _index = new HashMap<>(allRotors.size() * 2);
+        for (Rotor rotor : allRotors) {
+            if (_index.put(key(rotor.name()), rotor) != null) {
+                throw error("duplicate rotor name %s", rotor.name());
+            }
+        }
+    }
+
+    /** A new machine with the same alphabet, slots, pawls and available
+     *  rotors as ORIGIN, sharing its index of rotor names. */
+    private Machine(Machine origin) {
+        _alphabet = origin._alphabet;
+        _numRotors = origin._numRotors;
+        _pawls = origin._pawls;
+        _allRotors = origin._allRotors;
+        _index = origin._index;
+    }
+
+    /** Return the key under which the rotor named NAME is indexed. */
+    private static String key(String name) {
+        return name.toUpperCase();
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return all the rotors available to me. */
+    Collection<Rotor> allRotors() {
+        return _allRotors;
     }
 
     /** Return the number of rotor slots I have. */
@@ -48,78 +146,540 @@ class Machine {
     }
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
-     *  available rotors (ROTORS[0] names the reflector).
+     *  available rotors (ROTORS[0] names the reflector).  Names are
+     *  compared ignoring case, and no rotor may be named twice.
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
-        for (String rotorName : rotors) {
-            for (Rotor rotor : _allRotors) {
-                if (rotor.name().toUpperCase().equals(rotorName)) {
-                    rotorsInUse.add(rotor);
-                    break;
+        Rotor[] inserted = new Rotor[rotors.length];
+        for (int i = 0; i < rotors.length; i += 1) {
+            inserted[i] = rotor(rotors[i]);
+        }
+        insertRotors(inserted);
+    }
+
+    /** Set my rotor slots to ROTORS, all of which are available to me,
+     *  each at its 0 setting.  There must be one rotor per slot: a
+     *  reflector, then non-moving rotors, then one moving rotor per
+     *  pawl.  ROTORS is not retained, so the caller may reuse it. */
+    void insertRotors(Rotor[] rotors) {
+        if (rotors.length != _numRotors) {
+            throw error("%d rotors given for %d slots", rotors.length,
+                        _numRotors);
+        }
+        for (int i = 0; i < rotors.length; i += 1) {
+            for (int k = 0; k < i; k += 1) {
+                if (rotors[k].base() == rotors[i].base()) {
+                    throw error("rotor %s named twice", rotors[i].name());
                 }
             }
+            if (rotors[i].reflecting() != (i == 0)) {
+                throw error(i == 0 ? "rotor %s in slot 0 is not a reflector"
+                            : "reflector %s not in slot 0",
+                            rotors[i].name());
+            }
+            if (i > 0 && rotors[i].rotates() != (i >= _numRotors - _pawls)) {
+                throw error("rotor %s in slot %d should %sbe moving",
+                            rotors[i].name(), i, rotors[i].rotates()
+                            ? "not " : "");
+            }
+        }
+        if (_settings.length == rotors.length) {
+            Arrays.fill(_settings, 0);
+        } else {
+            _settings = new int[rotors.length];
+        }
+        if (Arrays.equals(rotors, _rotors)) {
+            return;
+        }
+        for (Rotor rotor : rotors) {
+            rotor.prepare();
         }
+        _rotors = rotors.clone();
+        clearCompiled();
     }
 
+    /** Return my available rotor named NAME, ignoring case. */
+    private Rotor rotor(String name) {
+        Rotor rotor = _index.get(key(name));
+        if (rotor == null) {
+            throw error("unknown rotor %s", name);
+        }
+        return rotor;
+    }
+
+    /** Set me up according to the settings line SETTINGS: an asterisk,
+     *  the names of the rotors for my slots (reflector first), the
+     *  settings of all but the reflector as a word of characters,
+     *  optionally their ring settings as another such word (all 0 if
+     *  absent), and cycles giving the plugboard, all separated by
+     *  whitespace.  The line is parsed in one pass without splitting it.
+     *  Rotors and plugboard are only replaced when they differ from those
+     *  already in place, and then replacing the plugboard is the only
+     *  allocation.  The whole line is checked before any of it is
+     *  applied, so a line in error leaves me unchanged. */
     void parseSettings(String settings) {
-        String[] settingsTokens = settings.split(" ");
+        int n = settings.length();
+        if (_tokens == null) {
+            _tokens = new int[2 * (_numRotors + 3)];
+            _inserting = new Rotor[_numRotors];
+            _rings = new int[_numRotors];
+            _windows = new int[_numRotors];
+        }
+        int count = 0;
+        int i = skipWhitespace(settings, 0);
+        while (i < n && settings.charAt(i) != '(') {
+            int end = i;
+            while (end < n && !Character.isWhitespace(settings.charAt(end))) {
+                end += 1;
+            }
+            if (2 * count == _tokens.length) {
+                _tokens = Arrays.copyOf(_tokens, 2 * _tokens.length);
+            }
+            _tokens[2 * count] = i;
+            _tokens[2 * count + 1] = end;
+            count += 1;
+            i = skipWhitespace(settings, end);
+        }
+        if (count == 0 || _tokens[1] - _tokens[0] != 1
+            || settings.charAt(_tokens[0]) != '*') {
+            throw error("settings line must begin with '*'");
+        }
+        boolean rings = count - 3 == _numRotors;
+        if (count - 2 != _numRotors && !rings) {
+            throw error("settings line names %d rotors for %d slots",
+                        Math.max(count - 2, 0), _numRotors);
+        }
+        if (rings) {
+            count -= 1;
+            readWord(settings, _tokens[2 * count], _tokens[2 * count + 1],
+                     _rings, "ring settings");
+        } else {
+            Arrays.fill(_rings, 0);
+        }
+        for (int k = 0; k < _numRotors; k += 1) {
+            _inserting[k] = rotor(settings, _tokens[2 * k + 2],
+                                  _tokens[2 * k + 3], k).withRing(_rings[k]);
+        }
+        readWord(settings, _tokens[2 * count - 2], _tokens[2 * count - 1],
+                 _windows, "rotor settings");
+        Permutation plugboard = plugboard(settings, i, n);
+        insertRotors(_inserting);
+        setWindows(_windows);
+        setPlugboard(plugboard);
+    }
 
-        /** splits tokens by their blank space for easy access */
-        int initialPositionIndex = settingsTokens.length;
+    /** Scratch space for parseSettings: the starts and ends of the tokens
+     *  of a settings line preceding its plugboard. */
+    private int[] _tokens;
+    /** Scratch space for parseSettings: the rotors it inserts. */
+    private Rotor[] _inserting;
+    /** Scratch space for parseSettings and setRings: ring settings. */
+    private int[] _rings;
+    /** Scratch space for parseSettings: the letters in the rotors'
+     *  windows. */
+    private int[] _windows;
+    /** Scratch space for parseSettings: the plugboard wiring. */
+    private int[] _plugboardTable;
 
-        String plugboardString = "";
+    /** Return the settings line that sets up a machine like me to my
+     *  current state: my rotors, the letters in their windows, their
+     *  rings and my plugboard (see settingsLine(Alphabet, ...)). */
+    String settingsLine() {
+        return settingsLine(_alphabet, _rotors, _settings, _plugboard);
+    }
 
-        for (int i = settingsTokens.length - 1; i >= 0; i--) {
-            initialPositionIndex = i;
-            if (settingsTokens[i].charAt(0) != '(') {
-                break;
-            } else {
-                plugboardString = settingsTokens[i] + plugboardString;
+    /** Return the settings line for the rotors ROTORS (reflector first)
+     *  of a machine with alphabet ALPHABET at the settings SETTINGS (as
+     *  stored by snapshot), with the cycles of PLUGBOARD, which must pair
+     *  characters, or no plugboard if it is null.  The line gives the
+     *  letters in the rotors' windows, followed by their ring settings if
+     *  any is not 0, and so sets up a machine with those rotors to the
+     *  same state. */
+    static String settingsLine(Alphabet alphabet, Rotor[] rotors,
+                               int[] settings, Permutation plugboard) {
+        StringBuilder line = new StringBuilder("*");
+        boolean ringed = false;
+        for (Rotor rotor : rotors) {
+            line.append(' ').append(rotor.name());
+            ringed |= rotor.ring() != 0;
+        }
+        line.append(' ');
+        int n = alphabet.size();
+        for (int k = 1; k < settings.length; k += 1) {
+            int window = settings[k] + rotors[k].ring();
+            line.appendCodePoint(alphabet.toCodePoint(window % n));
+        }
+        if (ringed) {
+            line.append(' ');
+            for (int k = 1; k < rotors.length; k += 1) {
+                line.appendCodePoint(alphabet.toCodePoint(rotors[k].ring()));
             }
         }
+        for (int a = 0; plugboard != null && a < n; a += 1) {
+            int b = plugboard.permute(a);
+            if (a < b) {
+                line.append(" (").appendCodePoint(alphabet.toCodePoint(a))
+                    .appendCodePoint(alphabet.toCodePoint(b)).append(')');
+            }
+        }
+        return line.toString();
+    }
+
+    /** Return the index of the first character of LINE at or after START
+     *  that is not whitespace, or LINE.length() if there is none. */
+    private static int skipWhitespace(String line, int start) {
+        while (start < line.length()
+               && Character.isWhitespace(line.charAt(start))) {
+            start += 1;
+        }
+        return start;
+    }
 
-        String initialPositions = settingsTokens[initialPositionIndex];
-        rotorsInUse = new ArrayList<Rotor>();
-        this.insertRotors(Arrays.copyOfRange(settingsTokens, 1, initialPositionIndex));
-        this.setRotors(initialPositions);
-        this.setPlugboard(new Permutation(plugboardString, _alphabet));
+    /** Return my available rotor whose name is LINE[START..END), ignoring
+     *  case.  If it is the rotor already in slot SLOT, finds it without
+     *  looking it up (or creating a String of its name). */
+    private Rotor rotor(String line, int start, int end, int slot) {
+        if (slot < _rotors.length) {
+            String name = _rotors[slot].name();
+            if (name.length() == end - start
+                && line.regionMatches(true, start, name, 0, name.length())) {
+                return _rotors[slot];
+            }
+        }
+        return rotor(line.substring(start, end));
     }
 
     /** Set my rotors according to SETTING, which must be a string of four
      *  upper-case letters. The first letter refers to the leftmost
      *  rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
-        for (int i = 0; i < setting.length(); i++) {
-            rotorsInUse.get(i + 1).set(setting.charAt(i));
+        setRotors(setting, 0, setting.length());
+    }
+
+    /** Set my rotors according to the characters of LINE[START..END), one
+     *  per rotor after the reflector, from left to right, each giving the
+     *  letter in the rotor's window (so that the setting stored is that
+     *  less the rotor's ring setting). */
+    private void setRotors(String line, int start, int end) {
+        int[] windows = new int[_settings.length];
+        readWord(line, start, end, windows, "rotor settings");
+        setWindows(windows);
+    }
+
+    /** Set my rotors after the reflector so that WINDOWS[K] is the index
+     *  of the letter in the window of the rotor in slot K (so that the
+     *  setting stored is that less the rotor's ring setting). */
+    private void setWindows(int[] windows) {
+        int n = _alphabet.size();
+        _settings[0] = 0;
+        for (int k = 1; k < _settings.length; k += 1) {
+            int ring = _rotors[k].ring();
+            _settings[k] = windows[k] >= ring ? windows[k] - ring
+                : windows[k] - ring + n;
+        }
+    }
+
+    /** Set the ring settings of my rotors after the reflector to the
+     *  characters of RINGS, from left to right, leaving the letters in
+     *  their windows unchanged. */
+    void setRings(String rings) {
+        if (_rings == null) {
+            _rings = new int[_numRotors];
+        }
+        readWord(rings, 0, rings.length(), _rings, "ring settings");
+        int n = _alphabet.size();
+        Rotor[] rotors = _rotors.clone();
+        for (int k = 1; k < rotors.length; k += 1) {
+            int window = (_settings[k] + _rotors[k].ring()) % n;
+            rotors[k] = _rotors[k].withRing(_rings[k]);
+            _settings[k] = (window - _rings[k] + n) % n;
+        }
+        if (!Arrays.equals(rotors, _rotors)) {
+            _rotors = rotors;
+            clearCompiled();
+        }
+    }
+
+    /** Store the indices of the characters of LINE[START..END), one per
+     *  rotor after the reflector, in RESULT[1 ..], and 0 in RESULT[0].
+     *  WHAT describes the characters, for error messages. */
+    private void readWord(String line, int start, int end, int[] result,
+                          String what) {
+        int k = 1;
+        for (int i = start; i < end; k += 1) {
+            if (k == result.length) {
+                throw error("too many %s in %s", what,
+                            line.substring(start, end));
+            }
+            int c = line.codePointAt(i);
+            result[k] = _alphabet.toInt(c);
+            i += Character.charCount(c);
+        }
+        if (k != result.length) {
+            throw error("too few %s in %s", what,
+                        line.substring(start, end));
+        }
+        result[0] = 0;
+    }
+
+    /** Return the plugboard given by the cycles in LINE[START..END),
+     *  parsing them into a buffer that is reused from call to call: my
+     *  plugboard if it is the same, and otherwise a new one. */
+    private Permutation plugboard(String line, int start, int end) {
+        if (_plugboardTable == null) {
+            _plugboardTable = new int[_alphabet.size()];
         }
+        Permutation.compile(line, start, end, _alphabet, _plugboardTable);
+        if (_plugboard != null && _plugboard.maps(_plugboardTable)) {
+            return _plugboard;
+        }
+        return new Permutation(_plugboardTable, _alphabet);
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        if (!samePermutation(_plugboard, plugboard)) {
+            clearCompiled();
+        }
         _plugboard = plugboard;
     }
 
+    /** Return true iff permutations P and Q are both non-null and map
+     *  every index to the same value. */
+    private static boolean samePermutation(Permutation p, Permutation q) {
+        if (p == q) {
+            return p != null;
+        }
+        if (p == null || q == null || p.size() != q.size()) {
+            return false;
+        }
+        for (int i = 0; i < p.size(); i += 1) {
+            if (p.permute(i) != q.permute(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Turn compiled conversion on, caching the conversion tables of at
+     *  most CAPACITY rotor positions, or off if CAPACITY is 0.  When on,
+     *  the whole plugboard-rotors-reflector-rotors-plugboard composition
+     *  for each tuple of rotor positions is computed once, so that
+     *  revisiting those positions costs one table lookup per character.
+     *  If every combination of positions of my moving rotors fits in
+     *  CAPACITY, the tables are kept in an array indexed by those
+     *  positions, which covers the whole stepping period; otherwise they
+     *  are kept in a hashed table of CAPACITY (rounded down to a power of
+     *  two) slots, where a position is compiled into an empty slot or, on
+     *  its second visit (see _seen), evicts an old one that it collides
+     *  with, and which is bypassed while few lookups find a table (see
+     *  _bypass).  Compilation is only possible when a tuple of positions
+     *  fits in a long; otherwise conversion is unaffected. */
+    void setCompiled(int capacity) {
+        if (capacity < 0) {
+            throw error("negative cache capacity");
+        }
+        _compiled = null;
+        _compiledKeys = null;
+        _seen = null;
+        _lookups = _hits = _bypass = 0;
+        _compiledFixed = -1;
+        if (capacity == 0 || !positionsFitInLong()) {
+            return;
+        }
+        long moving = movingPositions();
+        if (moving <= capacity) {
+            _compiled = new int[(int) moving][];
+        } else {
+            _compiled = new int[Integer.highestOneBit(capacity)][];
+            _compiledKeys = new long[_compiled.length];
+            _seen = new long[_compiled.length];
+            Arrays.fill(_seen, -1);
+        }
+    }
+
+    /** Turn compiled conversion on with a table for every combination of
+     *  positions of my moving rotors (see setCompiled(int)), if there are
+     *  at most DEFAULT_CACHE_SIZE of them, and otherwise off, since then
+     *  a long message would evict tables before they were used again. */
+    void setCompiled() {
+        setCompiled(movingPositions() <= DEFAULT_CACHE_SIZE
+                    ? DEFAULT_CACHE_SIZE : 0);
+    }
+
+    /** Return true iff I am converting with cached compiled tables. */
+    boolean compiled() {
+        return _compiled != null;
+    }
+
+    /** Discard my compiled tables, if any. */
+    private void clearCompiled() {
+        if (_compiled != null) {
+            Arrays.fill(_compiled, null);
+            _compiledFixed = -1;
+        }
+        if (_seen != null) {
+            Arrays.fill(_seen, -1);
+            _lookups = _hits = _bypass = 0;
+        }
+    }
+
+    /** Return the number of combinations of positions of my moving
+     *  rotors, or Long.MAX_VALUE if that does not fit in a long. */
+    private long movingPositions() {
+        long result = 1;
+        for (int i = 0; i < _pawls; i += 1) {
+            if (result > Long.MAX_VALUE / _alphabet.size()) {
+                return Long.MAX_VALUE;
+            }
+            result *= _alphabet.size();
+        }
+        return result;
+    }
+
+    /** Return true iff every tuple of _numRotors positions has a distinct
+     *  key that fits in a long. */
+    private boolean positionsFitInLong() {
+        long max = 1;
+        for (int i = 0; i < _numRotors; i += 1) {
+            if (max > Long.MAX_VALUE / _alphabet.size()) {
+                return false;
+            }
+            max *= _alphabet.size();
+        }
+        return true;
+    }
+
+    /** Return a key that uniquely identifies the current positions of my
+     *  rotors. */
+    private long positionKey() {
+        long key = 0;
+        for (int i = 0; i < _settings.length; i += 1) {
+            key = key * _alphabet.size() + _settings[i];
+        }
+        return key;
+    }
+
+    /** Return a key that uniquely identifies the current positions of my
+     *  non-moving rotors (including the reflector). */
+    private long fixedKey() {
+        long key = 0;
+        for (int i = 0; i < _settings.length - _pawls; i += 1) {
+            key = key * _alphabet.size() + _settings[i];
+        }
+        return key;
+    }
+
+    /** Return the index, from 0 to movingPositions() - 1, of the current
+     *  positions of my moving rotors, the rightmost rotor's position
+     *  being the least significant digit. */
+    private int movingIndex() {
+        int index = 0;
+        for (int i = _settings.length - _pawls; i < _settings.length;
+             i += 1) {
+            index = index * _alphabet.size() + _settings[i];
+        }
+        return index;
+    }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
         this.rotate();
+        int[] table = _compiled == null ? null : compiledTable();
+        return table != null ? table[c] : scramble(c);
+    }
+
+    /** Return the compiled conversion table for the current positions of
+     *  my rotors, compiling it if necessary, or null if they are not yet
+     *  to be compiled (see _seen).  Compiled conversion must be on. */
+    private int[] compiledTable() {
+        if (_compiledKeys == null) {
+            return denseTable(fixedKey(), movingIndex());
+        }
+        if (_bypass > 0) {
+            _bypass -= 1;
+            return null;
+        }
+        _lookups += 1;
+        if (_lookups > _compiled.length) {
+            if (_hits * MIN_HIT_RATIO < _compiled.length) {
+                _bypass = BYPASS_FACTOR * _compiled.length;
+            }
+            _lookups = 1;
+            _hits = 0;
+        }
+        long key = positionKey();
+        int mask = _compiled.length - 1;
+        int home = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        int slot = home;
+        for (int p = 0; p < PROBES; p += 1) {
+            int probe = (home + p) & mask;
+            if (_compiled[probe] == null) {
+                slot = probe;
+                break;
+            }
+            if (_compiledKeys[probe] == key) {
+                _hits += 1;
+                return _compiled[probe];
+            }
+        }
+        int[] table = _compiled[slot];
+        if (table == null) {
+            table = _compiled[slot] = new int[_alphabet.size()];
+        } else if (_seen[home] != key) {
+            _seen[home] = key;
+            return null;
+        }
+        compileTable(table, 0);
+        _compiledKeys[slot] = key;
+        _hits += 1;
+        return table;
+    }
+
+    /** Return the table in my dense compiled tables for the positions with
+     *  fixed key FIXED and moving index MOVING (which must be the current
+     *  positions), compiling it if necessary. */
+    private int[] denseTable(long fixed, int moving) {
+        if (fixed != _compiledFixed) {
+            Arrays.fill(_compiled, null);
+            _compiledFixed = fixed;
+        }
+        int[] table = _compiled[moving];
+        if (table == null) {
+            table = _compiled[moving] = new int[_alphabet.size()];
+            compileTable(table, 0);
+        }
+        return table;
+    }
+
+    /** Store the conversion of each index at my rotors' current
+     *  positions, without advancing them, in TABLE[OFF .. OFF + alphabet
+     *  size - 1]: the table that compiled conversion uses at these
+     *  positions. */
+    void compileTable(int[] table, int off) {
+        for (int i = 0; i < _alphabet.size(); i += 1) {
+            table[off + i] = scramble(i);
+        }
+    }
 
+    /** Return the result of passing C through the plugboard, the rotors,
+     *  the reflector and back with my rotors in their current positions,
+     *  without advancing them. */
+    private int scramble(int c) {
         int converted = c;
 
         converted = _plugboard.permute(converted);
 
-        for (int i = rotorsInUse.size() - 1; i >= 1; i--) {
-            Rotor currentRotor = rotorsInUse.get(i);
-            converted = currentRotor.convertForward(converted);
+        for (int i = _rotors.length - 1; i >= 1; i--) {
+            converted = _rotors[i].convertForward(converted, _settings[i]);
         }
 
-        Rotor reflector = rotorsInUse.get(0);
-        converted = reflector.convertForward(converted);
+        converted = _rotors[0].convertForward(converted, _settings[0]);
 
-        for (int i = 1; i < rotorsInUse.size(); i++) {
-            Rotor currentRotor = rotorsInUse.get(i);
-            converted = currentRotor.convertBackward(converted);
+        for (int i = 1; i < _rotors.length; i++) {
+            converted = _rotors[i].convertBackward(converted, _settings[i]);
         }
 
         converted = _plugboard.permute(converted);
@@ -127,31 +687,466 @@ class Machine {
         return converted;
     }
 
+    /** Advance my rotors one step, as before each key press.  The
+     *  rightmost rotor always advances.  Any other moving rotor advances
+     *  if the rotor to its right is at a notch, and a moving rotor at one
+     *  of its own notches also advances when the rotor to its left moves
+     *  (the "double step"). */
     void rotate() {
-        boolean atNotch = false;
-        for (int i = rotorsInUse.size() - 1; i >= 0; i--) {
-            Rotor currentRotor = rotorsInUse.get(i);
-            if (currentRotor.getClass() != MovingRotor.class) {
-                break;
+        int last = _rotors.length - 1;
+        int first = firstMoving();
+        for (int i = first; i <= last; i += 1) {
+            if (i == last || _rotors[i + 1].atNotch(_settings[i + 1])
+                || (i > first && _rotors[i].atNotch(_settings[i]))) {
+                _settings[i] = _settings[i] + 1 == _alphabet.size() ? 0
+                    : _settings[i] + 1;
+            }
+        }
+    }
+
+    /** Return the index in _rotors of the leftmost of the moving
+     *  rotors at the right end of my slots. */
+    private int firstMoving() {
+        int first = _rotors.length;
+        while (first > 0 && _rotors[first - 1].rotates()) {
+            first -= 1;
+        }
+        return first;
+    }
+
+    /** Advance my rotors by STEPS key presses, without converting
+     *  anything.  The result is the same as calling rotate() STEPS times,
+     *  but only steps that move more than the rightmost rotor are taken
+     *  individually, and a cycle in the rotor positions is skipped over
+     *  once found, so the time taken does not grow in proportion to
+     *  STEPS. */
+    void advanceBy(long steps) {
+        if (steps < 0) {
+            throw error("cannot advance by a negative number of steps");
+        }
+        if (firstMoving() == _rotors.length) {
+            return;
+        }
+        HashMap<Long, Long> seen = null;
+        if (steps > (long) _alphabet.size() * _alphabet.size()
+            && positionsFitInLong()) {
+            seen = new HashMap<>();
+        }
+        long done = 0;
+        while (done < steps) {
+            long quiet = quietSteps();
+            if (quiet > 0) {
+                int last = _settings.length - 1;
+                long k = Math.min(quiet, steps - done);
+                _settings[last] =
+                    (int) ((_settings[last] + k) % _alphabet.size());
+                done += k;
+                continue;
+            }
+            if (seen != null) {
+                Long previous = seen.put(positionKey(), done);
+                if (previous != null) {
+                    long period = done - previous;
+                    steps = done + (steps - done) % period;
+                    seen = null;
+                    continue;
+                }
             }
+            rotate();
+            done += 1;
+        }
+    }
+
+    /** Return the number of key presses, starting with the next, that will
+     *  advance only my rightmost rotor (Long.MAX_VALUE if that will always
+     *  be the case). */
+    private long quietSteps() {
+        int last = _rotors.length - 1;
+        int first = firstMoving();
+        if (first >= last) {
+            return Long.MAX_VALUE;
+        }
+        for (int i = first + 1; i < last; i += 1) {
+            if (_rotors[i].atNotch(_settings[i])) {
+                return 0;
+            }
+        }
+        int distance = _rotors[last].notchDistance(_settings[last]);
+        return distance < 0 ? Long.MAX_VALUE : distance;
+    }
+
+    /** Return the settings of my rotors (including the reflector) as they
+     *  will be after INDEX more key presses, without changing them. */
+    int[] positionAt(long index) {
+        Machine ahead = fork();
+        ahead.advanceBy(index);
+        return ahead._settings;
+    }
+
+    /** Return a new machine with my rotors, plugboard and rotor settings,
+     *  which can then convert independently of me (for example, in another
+     *  thread).  The fork shares my rotors and plugboard, which do not
+     *  change, so the only storage it needs of its own is for its rotor
+     *  settings.  The fork does not use compiled conversion. */
+    Machine fork() {
+        Machine result = new Machine(this);
+        result._rotors = _rotors;
+        result._settings = _settings.clone();
+        result._plugboard = _plugboard;
+        return result;
+    }
+
+    /** Return a new array containing my rotor settings (including the
+     *  reflector's), suitable for restore. */
+    int[] snapshot() {
+        return _settings.clone();
+    }
 
-            if (i == rotorsInUse.size() - 1 || atNotch) {
-                atNotch = currentRotor.atNotch();
-                currentRotor.advance();
+    /** Store my rotor settings in SNAPSHOT, which must have one element
+     *  per rotor slot in use, without allocating any storage. */
+    void snapshot(int[] snapshot) {
+        System.arraycopy(_settings, 0, snapshot, 0, _settings.length);
+    }
+
+    /** Set my rotors to the settings in SNAPSHOT, as previously filled by
+     *  snapshot() with the same rotors inserted, without allocating any
+     *  storage. */
+    void restore(int[] snapshot) {
+        if (snapshot.length != _settings.length) {
+            throw error("snapshot is for a different number of rotors");
+        }
+        System.arraycopy(snapshot, 0, _settings, 0, _settings.length);
+    }
+
+    /** Convert the LEN characters (as indices) of TEXT starting at OFF in
+     *  place, with the same result as converting each with convert(int),
+     *  and update the state of the rotors accordingly.  Between carries,
+     *  only the rightmost rotor moves, so each such run of characters is
+     *  converted in a loop that steps just that rotor, rather than
+     *  checking every rotor's notches before each character. */
+    void convert(int[] text, int off, int len) {
+        int end = off + len;
+        boolean moving = firstMoving() < _rotors.length;
+        for (int i = off; i < end; ) {
+            long quiet = moving ? quietSteps() : 0;
+            if (quiet == 0) {
+                text[i] = convert(text[i]);
+                i += 1;
+            } else {
+                int run = (int) Math.min(quiet, end - i);
+                convertRun(text, i, run);
+                i += run;
             }
         }
     }
 
+    /** Convert the LEN characters (as indices) of TEXT starting at OFF in
+     *  place, advancing my rightmost rotor (only) before each.  With
+     *  dense compiled tables, the index of each character's table is
+     *  that of the first plus the rightmost rotor's advance; while a
+     *  hashed table is bypassed, characters are scrambled without
+     *  consulting it. */
+    private void convertRun(int[] text, int off, int len) {
+        int last = _settings.length - 1;
+        int n = _alphabet.size();
+        int s = _settings[last];
+        if (_compiled != null && _compiledKeys == null) {
+            long fixed = fixedKey();
+            int base = movingIndex() - s;
+            for (int i = off; i < off + len; i += 1) {
+                s = s + 1 == n ? 0 : s + 1;
+                _settings[last] = s;
+                text[i] = denseTable(fixed, base + s)[text[i]];
+            }
+            return;
+        }
+        for (int i = off; i < off + len; ) {
+            int plain = off + len - i;
+            if (_compiled != null) {
+                plain = Math.min(_bypass, plain);
+                _bypass -= plain;
+            }
+            for (int end = i + plain; i < end; i += 1) {
+                s = s + 1 == n ? 0 : s + 1;
+                _settings[last] = s;
+                text[i] = scramble(text[i]);
+            }
+            if (i < off + len) {
+                s = s + 1 == n ? 0 : s + 1;
+                _settings[last] = s;
+                int[] table = compiledTable();
+                text[i] = table != null ? table[text[i]] : scramble(text[i]);
+                i += 1;
+            }
+        }
+    }
+
+    /** Convert TEXT (indices) once for each lane of STATES, with my rotors
+     *  and plugboard and the lane's rotor settings, storing the result for
+     *  lane L in OUT[L][0 .. TEXT.length - 1] and leaving each lane's
+     *  settings as convert would leave mine.  My own settings are not
+     *  used or changed.  If STATES or OUT do not fit TEXT and my rotors,
+     *  throws an exception without changing any lane.  Each character is
+     *  stepped and converted one slot at a time across all the lanes, so
+     *  that each inner loop is a simple loop over the int[] of one slot's
+     *  settings in every lane, which the JIT compiler can unroll and, for
+     *  the table lookups, may vectorize where the processor has gather
+     *  instructions. */
+    void convertBatch(int[] text, MachineStateBatch states, int[][] out) {
+        if (states.numRotors() != _rotors.length) {
+            throw error("batch is for a different number of rotors");
+        }
+        int lanes = states.lanes();
+        if (out.length < lanes) {
+            throw error("no output for some lanes");
+        }
+        for (int l = 0; l < lanes; l += 1) {
+            if (out[l].length < text.length) {
+                throw error("output for lane %d is shorter than the text", l);
+            }
+        }
+        int n = _alphabet.size();
+        int last = _rotors.length - 1;
+        int first = firstMoving();
+        int[] x = new int[lanes];
+        for (int i = 0; i < text.length; i += 1) {
+            for (int k = first; k <= last; k += 1) {
+                int[] pos = states.positions(k);
+                if (k == last) {
+                    for (int l = 0; l < lanes; l += 1) {
+                        pos[l] = pos[l] + 1 == n ? 0 : pos[l] + 1;
+                    }
+                    continue;
+                }
+                Rotor right = _rotors[k + 1], self = _rotors[k];
+                int[] next = states.positions(k + 1);
+                boolean doubles = k > first;
+                for (int l = 0; l < lanes; l += 1) {
+                    if (right.atNotch(next[l])
+                        || (doubles && self.atNotch(pos[l]))) {
+                        pos[l] = pos[l] + 1 == n ? 0 : pos[l] + 1;
+                    }
+                }
+            }
+
+            Arrays.fill(x, _plugboard.permute(text[i]));
+            for (int k = last; k >= 0; k -= 1) {
+                convertLanes(_rotors[k], true, states.positions(k), x);
+            }
+            for (int k = 1; k <= last; k += 1) {
+                convertLanes(_rotors[k], false, states.positions(k), x);
+            }
+            for (int l = 0; l < lanes; l += 1) {
+                out[l][i] = _plugboard.permute(x[l]);
+            }
+        }
+    }
+
+    /** Replace each X[L] by its conversion by ROTOR at setting POS[L],
+     *  forward if FORWARD and otherwise backward. */
+    private static void convertLanes(Rotor rotor, boolean forward,
+                                     int[] pos, int[] x) {
+        int[] table = forward ? rotor.forwardTable() : rotor.backwardTable();
+        if (table == null) {
+            for (int l = 0; l < x.length; l += 1) {
+                x[l] = forward ? rotor.convertForward(x[l], pos[l])
+                    : rotor.convertBackward(x[l], pos[l]);
+            }
+            return;
+        }
+        int n = rotor.size();
+        for (int l = 0; l < x.length; l += 1) {
+            x[l] = table[pos[l] * n + x[l]];
+        }
+    }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String converted = "";
-        for (int i = 0; i < msg.length(); i++) {
-            converted += _alphabet.toChar(convert(_alphabet.toInt(msg.charAt(i))));
+        if (!_alphabet.bmp()) {
+            int[] indices = new int[msg.length()];
+            int n = _alphabet.toInts(msg, indices);
+            convert(indices, 0, n);
+            return _alphabet.toString(indices, n);
         }
+        char[] converted = msg.toCharArray();
+        convert(converted, 0, converted.length, converted);
+        return new String(converted);
+    }
 
-        return converted;
+    /** Convert the LEN characters of IN starting at OFF, storing the
+     *  results in the same positions of OUT and updating the state of the
+     *  rotors accordingly.  IN and OUT may be the same array.  My alphabet
+     *  must contain no supplementary characters (see Alphabet.bmp). */
+    void convert(char[] in, int off, int len, char[] out) {
+        int[] indices = new int[Math.min(CHUNK, len)];
+        for (int start = off; start < off + len; start += CHUNK) {
+            int n = Math.min(CHUNK, off + len - start);
+            _alphabet.toInts(in, start, n, indices);
+            convert(indices, 0, n);
+            _alphabet.toChars(indices, n, out, start);
+        }
+    }
+
+    /** Size of the buffers used by convert(char[], int, int, char[]) and
+     *  convert(CharSequence, Appendable). */
+    private static final int CHUNK = 8192;
+
+    /** Append the encoding/decoding of MSG to OUT, updating the state of
+     *  the rotors accordingly.  Uses a fixed amount of storage regardless
+     *  of the length of MSG. */
+    void convert(CharSequence msg, Appendable out) {
+        char[] buffer = new char[Math.min(CHUNK, msg.length())];
+        CharBuffer view = CharBuffer.wrap(buffer);
+        try {
+            if (!_alphabet.bmp()) {
+                for (int start = 0, end; start < msg.length(); start = end) {
+                    end = Math.min(start + CHUNK, msg.length());
+                    if (end < msg.length()
+                        && Character.isHighSurrogate(msg.charAt(end - 1))) {
+                        end -= 1;
+                    }
+                    out.append(convert(msg.subSequence(start, end)
+                                       .toString()));
+                }
+                return;
+            }
+            for (int start = 0; start < msg.length(); start += CHUNK) {
+                int len = Math.min(CHUNK, msg.length() - start);
+                for (int i = 0; i < len; i += 1) {
+                    buffer[i] = msg.charAt(start + i);
+                }
+                convert(buffer, 0, len, buffer);
+                out.append(view, 0, len);
+            }
+        } catch (IOException excp) {
+            throw error("could not write converted message: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Convert the bytes remaining in IN, or as many of them as fit in
+     *  the space remaining in OUT, into OUT, advancing the positions of
+     *  both and updating the state of the rotors accordingly.  Each byte B
+     *  is converted as the character with index B, so my alphabet must
+     *  have 256 characters (see ByteAlphabet).  IN and OUT may be heap or
+     *  direct buffers.  The bytes are converted a chunk at a time with
+     *  convert(int[], int, int); a heap buffer's bytes are read or written
+     *  through its backing array, and a direct buffer's with one bulk get
+     *  or put per chunk. */
+    void convert(ByteBuffer in, ByteBuffer out) {
+        if (_alphabet.size() != ByteAlphabet.SIZE) {
+            throw error("binary data requires an alphabet of %d characters",
+                        ByteAlphabet.SIZE);
+        }
+        int n = Math.min(in.remaining(), out.remaining());
+        int[] indices = new int[Math.min(CHUNK, n)];
+        byte[] bytes = in.hasArray() && out.hasArray()
+            ? null : new byte[indices.length];
+        for (int done = 0; done < n; done += indices.length) {
+            int len = Math.min(indices.length, n - done);
+            byte[] src = bytes;
+            int from = 0;
+            if (in.hasArray()) {
+                src = in.array();
+                from = in.arrayOffset() + in.position();
+                in.position(in.position() + len);
+            } else {
+                in.get(bytes, 0, len);
+            }
+            for (int i = 0; i < len; i += 1) {
+                indices[i] = src[from + i] & 0xff;
+            }
+            convert(indices, 0, len);
+            byte[] dest = bytes;
+            int to = 0;
+            if (out.hasArray()) {
+                dest = out.array();
+                to = out.arrayOffset() + out.position();
+            }
+            for (int i = 0; i < len; i += 1) {
+                dest[to + i] = (byte) indices[i];
+            }
+            if (out.hasArray()) {
+                out.position(out.position() + len);
+            } else {
+                out.put(bytes, 0, len);
+            }
+        }
+    }
+
+    /** Smallest number of characters converted by one task of
+     *  convertParallel. */
+    static final int PARALLEL_CHUNK = 1 << 16;
+
+    /** Returns the encoding/decoding of MSG, updating the state of the
+     *  rotors accordingly, converting pieces of MSG in parallel on the
+     *  common fork-join pool.  The result is the same as convert(MSG).
+     *  If my alphabet has supplementary characters, simply returns
+     *  convert(MSG). */
+    String convertParallel(String msg) {
+        if (!_alphabet.bmp()) {
+            return convert(msg);
+        }
+        char[] converted = msg.toCharArray();
+        convertParallel(converted, 0, converted.length, converted,
+                        ForkJoinPool.commonPool());
+        return new String(converted);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF into the same
+     *  positions of OUT, as for convert(IN, OFF, LEN, OUT), but in pieces
+     *  run in parallel on POOL.  Each piece is converted by a fork of me
+     *  advanced to the position at which the piece starts. */
+    void convertParallel(char[] in, int off, int len, char[] out,
+                         ForkJoinPool pool) {
+        pool.invoke(new ConvertTask(fork(), in, off, off, len, out));
+        advanceBy(len);
+    }
+
+    /** A task converting part of a message for convertParallel. */
+    private static class ConvertTask extends RecursiveAction {
+
+        /** A task converting the LEN characters of IN starting at START
+         *  into OUT, where ORIGIN is a machine in the state in which it
+         *  would convert IN[BASE]. */
+        ConvertTask(Machine origin, char[] in, int base, int start, int len,
+                    char[] out) {
+            _origin = origin;
+            _in = in;
+            _base = base;
+            _start = start;
+            _len = len;
+            _out = out;
+        }
+
+        @Override
+        protected void compute() {
+            if (_len <= PARALLEL_CHUNK) {
+                Machine machine = _origin.fork();
+                machine.advanceBy(_start - _base);
+                machine.convert(_in, _start, _len, _out);
+            } else {
+                int half = _len / 2;
+                invokeAll(new ConvertTask(_origin, _in, _base, _start, half,
+                                          _out),
+                          new ConvertTask(_origin, _in, _base, _start + half,
+                                          _len - half, _out));
+            }
+        }
+
+        /** Machine in its state at the start of the whole message. */
+        private final Machine _origin;
+        /** Message being converted. */
+        private final char[] _in;
+        /** Index of the start of the whole message in _in. */
+        private final int _base;
+        /** Index of the start of my part of the message in _in. */
+        private final int _start;
+        /** Length of my part of the message. */
+        private final int _len;
+        /** Destination of the conversion. */
+        private final char[] _out;
     }
 
 }
@@ -0,0 +1,66 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The rotor settings of a batch of machines (lanes) that share rotors
+ *  and a plugboard, for converting one text under many keys at once with
+ *  Machine.convertBatch.  The settings are stored as structure of arrays:
+ *  one int[] per rotor slot, holding that slot's setting in every lane,
+ *  so that stepping or converting a slot across all lanes is a loop over
+ *  consecutive ints.
+ *  @author rw
+ */
+class MachineStateBatch {
+
+    /** Number of lanes. */
+    private final int _lanes;
+    /** _positions[K][L] is the setting of the rotor in slot K in lane
+     *  L. */
+    private final int[][] _positions;
+
+    /** A batch of LANES lanes for a machine with NUMROTORS slots, every
+     *  rotor at setting 0. */
+    MachineStateBatch(int numRotors, int lanes) {
+        if (numRotors < 1 || lanes < 1) {
+            throw error("a batch needs at least one slot and one lane");
+        }
+        _lanes = lanes;
+        _positions = new int[numRotors][lanes];
+    }
+
+    /** Return the number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _positions.length;
+    }
+
+    /** Set the settings of lane LANE to SETTINGS, one per slot (as from
+     *  Machine.snapshot). */
+    void set(int lane, int[] settings) {
+        if (settings.length != _positions.length) {
+            throw error("settings are for a different number of rotors");
+        }
+        for (int k = 0; k < settings.length; k += 1) {
+            _positions[k][lane] = settings[k];
+        }
+    }
+
+    /** Store the settings of lane LANE in SETTINGS, which must have one
+     *  element per slot (as for Machine.restore). */
+    void get(int lane, int[] settings) {
+        for (int k = 0; k < _positions.length; k += 1) {
+            settings[k] = _positions[k][lane];
+        }
+    }
+
+    /** Return the settings of the rotor in slot K in every lane.  The
+     *  array is mine, not a copy. */
+    int[] positions(int k) {
+        return _positions[k];
+    }
+
+}
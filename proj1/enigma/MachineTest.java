@@ -0,0 +1,718 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Machine class.
+ *  @author rw
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Notches of the naval rotors, as in the default configuration. */
+    private static final HashMap<String, String> NOTCHES = new HashMap<>();
+    static {
+        NOTCHES.put("I", "Q");
+        NOTCHES.put("II", "E");
+        NOTCHES.put("III", "V");
+        NOTCHES.put("IV", "J");
+        NOTCHES.put("V", "Z");
+        NOTCHES.put("VI", "ZM");
+        NOTCHES.put("VII", "ZM");
+        NOTCHES.put("VIII", "ZM");
+    }
+
+    /** A long message used to compare conversion modes. */
+    static final String LONG_MSG;
+    static {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 5000; i += 1) {
+            msg.append(UPPER_STRING.charAt((i * 7 + i / 26) % 26));
+        }
+        LONG_MSG = msg.toString();
+    }
+
+    /** Return a 5-slot, 3-pawl machine with the naval rotors. */
+    static Machine navalMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (String name : NAVALA.keySet()) {
+            Permutation perm = new Permutation(NAVALA.get(name), UPPER);
+            if (NOTCHES.containsKey(name)) {
+                rotors.add(new MovingRotor(name, perm, NOTCHES.get(name)));
+            } else if (name.equals("B") || name.equals("C")) {
+                rotors.add(new Reflector(name, perm, ""));
+            } else {
+                rotors.add(new FixedRotor(name, perm, ""));
+            }
+        }
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    /** First of the supplementary characters standing for A-Z in
+     *  supplementaryMachine (MATHEMATICAL BOLD CAPITAL A). */
+    static final int BOLD_A = 0x1D400;
+
+    /** Return TEXT with each upper-case letter replaced by the
+     *  corresponding character from BOLD_A on. */
+    static String bold(String text) {
+        StringBuilder result = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c >= 'A' && c <= 'Z') {
+                result.appendCodePoint(BOLD_A + c - 'A');
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the machine of navalMachine with its alphabet replaced by
+     *  the supplementary characters of bold. */
+    static Machine supplementaryMachine() {
+        Alphabet alpha = new Alphabet(bold(UPPER_STRING));
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (String name : NAVALA.keySet()) {
+            Permutation perm = new Permutation(bold(NAVALA.get(name)), alpha);
+            if (NOTCHES.containsKey(name)) {
+                rotors.add(new MovingRotor(name, perm,
+                                           bold(NOTCHES.get(name))));
+            } else if (name.equals("B") || name.equals("C")) {
+                rotors.add(new Reflector(name, perm, ""));
+            } else {
+                rotors.add(new FixedRotor(name, perm, ""));
+            }
+        }
+        return new Machine(alpha, 5, 3, rotors);
+    }
+
+    @Test
+    public void checkConvert() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA I II III AAAA (AQ) (EP)");
+        assertEquals("IHBDQQMTQZ", m.convert("HELLOWORLD"));
+        m.parseSettings("* B BETA I II III AAAA (AQ) (EP)");
+        assertEquals("HELLOWORLD", m.convert("IHBDQQMTQZ"));
+    }
+
+    @Test
+    public void checkCompiledMatches() {
+        Machine plain = navalMachine();
+        Machine compiled = navalMachine();
+        compiled.setCompiled();
+        assertTrue(compiled.compiled());
+        for (String settings : new String[] {
+                "* B BETA I II III AAAA (AQ) (EP)",
+                "* C GAMMA VI VII VIII ZZYX (AB) (CD) (EF)",
+                "* C GAMMA VI VII VIII ZZYX",
+                "* B BETA III II I AAEA",
+            }) {
+            plain.parseSettings(settings);
+            compiled.parseSettings(settings);
+            assertEquals(settings, plain.convert(LONG_MSG),
+                         compiled.convert(LONG_MSG));
+            for (int i = 0; i < LONG_MSG.length(); i += 1) {
+                int c = UPPER.toInt(LONG_MSG.charAt(i));
+                assertEquals(settings, plain.convert(c), compiled.convert(c));
+            }
+        }
+    }
+
+    @Test
+    public void checkCompiledDefault() {
+        Machine bytes = byteMachine();
+        bytes.setCompiled();
+        assertFalse(bytes.compiled());
+    }
+
+    @Test
+    public void checkCompiledEviction() {
+        Machine plain = navalMachine();
+        Machine compiled = navalMachine();
+        compiled.setCompiled(3);
+        assertTrue(compiled.compiled());
+        plain.parseSettings("* B BETA I II III AAAA (AQ) (EP)");
+        compiled.parseSettings("* B BETA I II III AAAA (AQ) (EP)");
+        assertEquals(plain.convert(LONG_MSG), compiled.convert(LONG_MSG));
+        compiled.setCompiled(1000);
+        compiled.parseSettings("* B BETA I II III AAAA (AQ) (EP)");
+        plain.parseSettings("* B BETA I II III AAAA (AQ) (EP)");
+        for (int k = 0; k < 3; k += 1) {
+            assertEquals(plain.convert(LONG_MSG), compiled.convert(LONG_MSG));
+        }
+        compiled.setCompiled(0);
+        assertFalse(compiled.compiled());
+    }
+
+    @Test
+    public void checkBufferConvert() {
+        Machine m = navalMachine();
+        m.parseSettings("* C GAMMA VI VII VIII ZZYX (AB) (CD)");
+        String expected = m.convert(LONG_MSG);
+
+        m.parseSettings("* C GAMMA VI VII VIII ZZYX (AB) (CD)");
+        char[] in = ("xx" + LONG_MSG).toCharArray();
+        char[] out = new char[in.length];
+        m.convert(in, 2, LONG_MSG.length(), out);
+        assertEquals(expected, new String(out, 2, LONG_MSG.length()));
+
+        m.parseSettings("* C GAMMA VI VII VIII ZZYX (AB) (CD)");
+        StringBuilder msg = new StringBuilder();
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < 4; i += 1) {
+            msg.append(LONG_MSG);
+        }
+        m.convert(msg, result);
+        assertEquals(expected, result.substring(0, LONG_MSG.length()));
+        assertEquals(msg.length(), result.length());
+    }
+
+    @Test
+    public void checkDoubleStep() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA III II I AAEA");
+        assertEquals("JW", m.convert("AA"));
+        m.parseSettings("* B BETA III IV I AAJQ");
+        m.convert("A");
+        assertArrayEquals(new int[] { 0, 0, 1, 10, 17 }, m.positionAt(0));
+    }
+
+    @Test
+    public void checkAdvanceBy() {
+        for (String settings : new String[] {
+                "* B BETA I II III AAAA (AQ) (EP)",
+                "* C GAMMA VI VII VIII ZZYL",
+                "* B BETA III II I AADP",
+            }) {
+            for (long n : new long[] { 0, 1, 25, 26, 700, 17_000, 123_457 }) {
+                Machine stepped = navalMachine();
+                Machine jumped = navalMachine();
+                stepped.parseSettings(settings);
+                jumped.parseSettings(settings);
+                int[] predicted = jumped.positionAt(n);
+                for (long i = 0; i < n; i += 1) {
+                    stepped.rotate();
+                }
+                jumped.advanceBy(n);
+                assertArrayEquals(settings + " " + n,
+                                  stepped.positionAt(0), jumped.positionAt(0));
+                assertArrayEquals(settings + " " + n,
+                                  stepped.positionAt(0), predicted);
+                assertEquals(stepped.convert(LONG_MSG),
+                             jumped.convert(LONG_MSG));
+            }
+        }
+    }
+
+    @Test
+    public void checkAdvanceByLarge() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA III II I AADP");
+        m.advanceBy(1_000_000_000_000L);
+        Machine period = navalMachine();
+        period.parseSettings("* B BETA III II I AADP");
+        period.advanceBy(1_000_000_000_000L % (26 * 25 * 26) + 26 * 25 * 26);
+        assertArrayEquals(period.positionAt(0), m.positionAt(0));
+    }
+
+    @Test
+    public void checkConvertParallel() {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 100; i += 1) {
+            msg.append(LONG_MSG);
+        }
+        Machine sequential = navalMachine();
+        Machine parallel = navalMachine();
+        sequential.parseSettings("* C GAMMA VI VII VIII ZZYX (AB) (CD)");
+        parallel.parseSettings("* C GAMMA VI VII VIII ZZYX (AB) (CD)");
+        assertEquals(sequential.convert(msg.toString()),
+                     parallel.convertParallel(msg.toString()));
+        assertEquals(sequential.convert(LONG_MSG),
+                     parallel.convert(LONG_MSG));
+    }
+
+    @Test
+    public void checkSnapshotRestore() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA III II I AADP (AQ)");
+        int[] start = m.snapshot();
+        String first = m.convert(LONG_MSG);
+        int[] end = new int[start.length];
+        m.snapshot(end);
+        m.restore(start);
+        assertEquals(first, m.convert(LONG_MSG));
+        assertArrayEquals(end, m.snapshot());
+    }
+
+    @Test
+    public void checkConvertBatch() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA III IV I AAAA (AQ) (EP) (TX)");
+        int lanes = 300;
+        MachineStateBatch batch = new MachineStateBatch(5, lanes);
+        Random random = new Random(24);
+        int[][] starts = new int[lanes][5];
+        for (int l = 0; l < lanes; l += 1) {
+            for (int k = 1; k < 5; k += 1) {
+                starts[l][k] = random.nextInt(26);
+            }
+            if (l < 26) {
+                starts[l][3] = 9;
+                starts[l][4] = l;
+            }
+            batch.set(l, starts[l]);
+        }
+        int[] text = new int[200];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = random.nextInt(26);
+        }
+        int[][] out = new int[lanes][text.length];
+        m.convertBatch(text, batch, out);
+        int[] settings = new int[5];
+        for (int l = 0; l < lanes; l += 1) {
+            m.restore(starts[l]);
+            int[] expected = text.clone();
+            m.convert(expected, 0, expected.length);
+            assertArrayEquals(expected, out[l]);
+            batch.get(l, settings);
+            assertArrayEquals(m.snapshot(), settings);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkConvertBatchSlots() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA III IV I AAAA");
+        m.convertBatch(new int[1], new MachineStateBatch(4, 1),
+                       new int[1][1]);
+    }
+
+    @Test
+    public void checkConvertBatchShortOutput() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA III IV I AAAA");
+        MachineStateBatch batch = new MachineStateBatch(5, 3);
+        int[][] out = { new int[4], new int[4], new int[3] };
+        try {
+            m.convertBatch(new int[4], batch, out);
+            fail("short output accepted");
+        } catch (EnigmaException excp) {
+            for (int k = 0; k < 5; k += 1) {
+                assertArrayEquals(new int[3], batch.positions(k));
+            }
+        }
+    }
+
+    @Test
+    public void checkForksIndependent() throws InterruptedException {
+        Machine m = navalMachine();
+        m.parseSettings("* C GAMMA VI VII VIII ZZYX (AB) (CD)");
+        String expected = m.fork().convert(LONG_MSG);
+        String[] results = new String[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i += 1) {
+            Machine fork = m.fork();
+            int k = i;
+            threads[i] = new Thread(() -> {
+                    for (int j = 0; j < 10; j += 1) {
+                        results[k] = fork.fork().convert(LONG_MSG);
+                    }
+                });
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i += 1) {
+            threads[i].join();
+            assertEquals(expected, results[i]);
+        }
+        Machine fork = m.fork();
+        m.parseSettings("* B BETA I II III AAAA");
+        assertEquals(expected, fork.convert(LONG_MSG));
+    }
+
+    /** Return a 5-slot, 3-pawl machine over a ByteAlphabet with rotors
+     *  named R (a reflector), F (fixed) and M0-M3 (moving), wired at
+     *  random, set to its first position. */
+    static Machine byteMachine() {
+        ByteAlphabet alpha = new ByteAlphabet();
+        Random random = new Random(256);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation(byteCycles(random, 2),
+                                                      alpha), ""));
+        rotors.add(new FixedRotor("F", new Permutation(byteCycles(random, 0),
+                                                       alpha), ""));
+        for (int i = 0; i < 4; i += 1) {
+            rotors.add(new MovingRotor("M" + i,
+                                       new Permutation(byteCycles(random, 0),
+                                                       alpha),
+                                       ByteAlphabet.decode("0080")));
+        }
+        Machine m = new Machine(alpha, 5, 3, rotors);
+        m.parseSettings("* R F M0 M1 M2 " + ByteAlphabet.decode("00ff7f01"));
+        return m;
+    }
+
+    /** Return random cycles over a ByteAlphabet drawn from RANDOM: all of
+     *  length LEN if LEN > 0, and otherwise one permutation in cycle
+     *  notation. */
+    private static String byteCycles(Random random, int len) {
+        ArrayList<Character> bytes = new ArrayList<>();
+        for (int b = 0; b < ByteAlphabet.SIZE; b += 1) {
+            bytes.add((char) (ByteAlphabet.FIRST + b));
+        }
+        Collections.shuffle(bytes, random);
+        StringBuilder cycles = new StringBuilder();
+        if (len > 0) {
+            for (int i = 0; i < bytes.size(); i += len) {
+                cycles.append('(');
+                for (int k = i; k < i + len; k += 1) {
+                    cycles.append(bytes.get(k));
+                }
+                cycles.append(')');
+            }
+        } else {
+            cycles.append('(');
+            for (char c : bytes) {
+                cycles.append(c);
+            }
+            cycles.append(')');
+        }
+        return cycles.toString();
+    }
+
+    @Test
+    public void checkByteBuffers() {
+        byte[] data = new byte[10000];
+        new Random(0).nextBytes(data);
+        Machine plain = byteMachine();
+        byte[] expected = new byte[data.length];
+        for (int i = 0; i < data.length; i += 1) {
+            expected[i] = (byte) plain.convert(data[i] & 0xff);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(data.length);
+        byteMachine().convert(ByteBuffer.wrap(data), out);
+        assertArrayEquals(expected, out.array());
+
+        ByteBuffer in = ByteBuffer.allocateDirect(data.length);
+        in.put(data).flip();
+        ByteBuffer direct = ByteBuffer.allocateDirect(100);
+        Machine m = byteMachine();
+        byte[] result = new byte[data.length];
+        for (int k = 0; in.hasRemaining(); k += 100) {
+            m.convert(in, direct);
+            direct.flip().get(result, k, direct.remaining());
+            direct.clear();
+        }
+        assertArrayEquals(expected, result);
+
+        out.clear();
+        byteMachine().convert(ByteBuffer.wrap(expected), out);
+        assertArrayEquals(data, out.array());
+
+        byte[] padded = new byte[data.length + 7];
+        System.arraycopy(data, 0, padded, 7, data.length);
+        ByteBuffer slice = ByteBuffer.wrap(padded).position(7).slice();
+        ByteBuffer mixed = ByteBuffer.allocateDirect(data.length);
+        byteMachine().convert(slice, mixed);
+        assertFalse(slice.hasRemaining());
+        mixed.flip().get(result);
+        assertArrayEquals(expected, result);
+    }
+
+    /** Check that converting LONG_MSG with convert(int[], int, int) on A
+     *  gives the same results and final positions as converting it one
+     *  character at a time on B, where A and B are in the same state. */
+    private void checkBulk(Machine a, Machine b) {
+        int[] text = new int[LONG_MSG.length()];
+        UPPER.toInts(LONG_MSG, text);
+        int[] expected = new int[text.length];
+        for (int i = 0; i < text.length; i += 1) {
+            expected[i] = b.convert(text[i]);
+        }
+        a.convert(text, 0, text.length);
+        assertArrayEquals(expected, text);
+        assertArrayEquals(b.snapshot(), a.snapshot());
+    }
+
+    @Test
+    public void checkBulkConvert() {
+        for (String settings : new String[] {
+                "* B BETA I II III AAAA (AQ) (EP)",
+                "* C GAMMA VI VII VIII ZZYX (AB) (CD) (EF)",
+                "* B BETA III IV I AXLE",
+                "* B GAMMA V II IV ZQDJ",
+            }) {
+            Machine a = navalMachine(), b = navalMachine();
+            a.parseSettings(settings);
+            b.parseSettings(settings);
+            checkBulk(a, b);
+        }
+        ArrayList<Rotor> fixed = new ArrayList<>();
+        fixed.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER),
+                                ""));
+        fixed.add(new FixedRotor("BETA", new Permutation(NAVALA.get("Beta"),
+                                                         UPPER), ""));
+        Machine a = new Machine(UPPER, 2, 0, fixed);
+        Machine b = new Machine(UPPER, 2, 0, fixed);
+        a.parseSettings("* B BETA C (AZ)");
+        b.parseSettings("* B BETA C (AZ)");
+        checkBulk(a, b);
+    }
+
+    @Test
+    public void checkSupplementary() {
+        Machine plain = navalMachine();
+        Machine bold = supplementaryMachine();
+        plain.parseSettings("* C GAMMA VI VII VIII ZZYX (AB) (CD)");
+        bold.parseSettings("* C GAMMA VI VII VIII " + bold("ZZYX (AB) (CD)"));
+        String expected = bold(plain.convert(LONG_MSG));
+        assertEquals(expected, bold.convert(bold(LONG_MSG)));
+
+        plain.parseSettings("* B BETA III IV I AXLE (HQ)");
+        bold.parseSettings("* B BETA III IV I " + bold("AXLE (HQ)"));
+        StringBuilder out = new StringBuilder();
+        bold.convert(bold(LONG_MSG), out);
+        assertEquals(bold(plain.convert(LONG_MSG)), out.toString());
+    }
+
+    @Test
+    public void checkRotorNames() {
+        Machine m = navalMachine();
+        m.parseSettings("* b Beta iii IV I AXLE (HQ)");
+        Machine n = navalMachine();
+        n.parseSettings("* B BETA III IV I AXLE (HQ)");
+        assertEquals(n.convert(LONG_MSG), m.convert(LONG_MSG));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnknownRotor() {
+        navalMachine().insertRotors(new String[] {
+                "B", "BETA", "III", "IV", "IX"
+            });
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkRepeatedRotor() {
+        navalMachine().insertRotors(new String[] {
+                "B", "BETA", "III", "IV", "iii"
+            });
+    }
+
+    @Test
+    public void checkSettingsWhitespace() {
+        Machine m = navalMachine();
+        m.parseSettings("  *\tB BETA   III IV I AXLE (HQ)  (EX)(IP) ");
+        Machine n = navalMachine();
+        n.parseSettings("* B BETA III IV I AXLE (HQ) (EX) (IP)");
+        assertEquals(n.convert(LONG_MSG), m.convert(LONG_MSG));
+    }
+
+    @Test
+    public void checkBadSettings() {
+        String[] bad = {
+            "B BETA III IV I AXLE",
+            "*B BETA III IV I AXLE",
+            "* B BETA III IV AXLE",
+            "* B BETA II III IV I AXLE",
+            "* B BETA III IV I AXL",
+            "* B BETA III IV I AXLES",
+            "* BETA B III IV I AXLE",
+            "* B III BETA IV I AXLE",
+            "* B BETA III IV I AXLE (AB) CD",
+        };
+        Machine m = navalMachine();
+        for (String settings : bad) {
+            try {
+                m.parseSettings(settings);
+                fail("bad settings line accepted: " + settings);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test
+    public void checkBadSettingsUnchanged() {
+        String[] bad = {
+            "* C GAMMA V VI VII ZZYX (AB) (AC)",
+            "* C GAMMA V VI VII ZZYX ((AB))",
+            "* C GAMMA V VI VII ZZY? (AB)",
+            "* C GAMMA V VI VII ZZYX ABC? (AB)",
+            "* C GAMMA V VI IX ZZYX",
+            "* C BETA V VI VI ZZYX",
+        };
+        Machine m = navalMachine();
+        String good = "* B Beta III IV I AXLE BCDE (AQ) (EP)";
+        m.parseSettings(good);
+        String expected = m.fork().convert(LONG_MSG);
+        for (String settings : bad) {
+            try {
+                m.parseSettings(settings);
+                fail("bad settings line accepted: " + settings);
+            } catch (EnigmaException excp) {
+                assertEquals(settings, good, m.settingsLine());
+            }
+        }
+        assertEquals(expected, m.convert(LONG_MSG));
+    }
+
+    @Test
+    public void checkRingSettings() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA III IV I AXLE BCDE (AQ)");
+        assertEquals("* B Beta III IV I AXLE BCDE (AQ)", m.settingsLine());
+        String first = m.convert(LONG_MSG);
+        m.parseSettings("* B BETA III IV I AXLE BCDE (AQ)");
+        assertEquals(first, m.convert(LONG_MSG));
+        m.parseSettings("* B BETA III IV I AXLE (AQ)");
+        assertEquals("* B Beta III IV I AXLE (AQ)", m.settingsLine());
+        assertNotEquals(first, m.convert(LONG_MSG));
+
+        m.parseSettings("* B BETA III IV I AXLE (AQ)");
+        m.setRings("BCDE");
+        assertEquals("* B Beta III IV I AXLE BCDE (AQ)", m.settingsLine());
+        assertEquals(first, m.convert(LONG_MSG));
+    }
+
+    @Test
+    public void checkRingVectors() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA I II III AAAA");
+        assertEquals("BDZGO", m.convert("AAAAA"));
+        m.parseSettings("* B BETA I II III AAAA ABBB");
+        assertEquals("EWTYX", m.convert("AAAAA"));
+        m.parseSettings("* B BETA I II III AAZZ");
+        assertEquals("GFEBR", m.convert("AAAAA"));
+        m.parseSettings("* B BETA I II III AAZZ AAAA");
+        assertEquals("GFEBR", m.convert("AAAAA"));
+    }
+
+    @Test
+    public void checkRingTurnover() {
+        Machine m = navalMachine();
+        m.parseSettings("* B BETA III IV I AAAQ AAAM");
+        m.convert("A");
+        assertEquals("* B Beta III IV I AABR AAAM", m.settingsLine());
+        m.parseSettings("* B BETA III IV I AAJQ ABCD");
+        m.convert("A");
+        assertEquals("* B Beta III IV I ABKR ABCD", m.settingsLine());
+    }
+
+    @Test
+    public void checkRingEquivalence() {
+        Machine m = navalMachine();
+        Random random = new Random(25);
+        for (int trial = 0; trial < 20; trial += 1) {
+            int slot = 1 + random.nextInt(4);
+            int ring = 1 + random.nextInt(25);
+            char[] windows = new char[4], rings = new char[4];
+            for (int k = 0; k < 4; k += 1) {
+                windows[k] = (char) ('A' + random.nextInt(26));
+                rings[k] = 'A';
+            }
+            String plain = "* B BETA III IV I " + new String(windows);
+            m.parseSettings(plain);
+            String expected = m.convert(LONG_MSG);
+            rings[slot - 1] = (char) ('A' + ring);
+            windows[slot - 1] = (char) ('A' + (windows[slot - 1] - 'A'
+                                                + ring) % 26);
+            m.parseSettings("* B BETA III IV I " + new String(windows) + " "
+                            + new String(rings));
+            String ringed = m.convert(LONG_MSG);
+            if (slot <= 2) {
+                assertEquals(expected, ringed);
+            } else {
+                assertNotEquals(expected, ringed);
+            }
+        }
+    }
+
+    @Test
+    public void checkBadRings() {
+        String[] bad = {
+            "* B BETA III IV I AXLE BCD",
+            "* B BETA III IV I AXLE BCDEF",
+            "* B BETA III IV I AXLE BC#E",
+        };
+        Machine m = navalMachine();
+        for (String settings : bad) {
+            try {
+                m.parseSettings(settings);
+                fail("bad settings line accepted: " + settings);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+        for (Rotor rotor : m.allRotors()) {
+            if (rotor.reflecting()) {
+                try {
+                    rotor.withRing(1);
+                    fail("reflector given a ring");
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            } else {
+                assertSame(rotor.withRing(3), rotor.withRing(3));
+                assertSame(rotor, rotor.withRing(3).withRing(0));
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicateRotorName() {
+        ArrayList<Rotor> rotors = new ArrayList<>(navalMachine().allRotors());
+        rotors.add(new FixedRotor("beta", NAVALA.get("Beta"), UPPER, ""));
+        new Machine(UPPER, 5, 3, rotors);
+    }
+
+    @Test
+    public void checkLazyRotors() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (String name : NAVALA.keySet()) {
+            String cycles = NAVALA.get(name);
+            if (NOTCHES.containsKey(name)) {
+                rotors.add(new MovingRotor(name, cycles, UPPER,
+                                           NOTCHES.get(name)));
+            } else if (name.equals("B") || name.equals("C")) {
+                rotors.add(new Reflector(name, cycles, UPPER, ""));
+            } else {
+                rotors.add(new FixedRotor(name, cycles, UPPER, ""));
+            }
+        }
+        rotors.add(new MovingRotor("BAD", "(AB) (AC)", UPPER, "A"));
+        Machine lazy = new Machine(UPPER, 5, 3, rotors);
+        for (Rotor rotor : rotors) {
+            assertFalse(rotor.built());
+        }
+        Machine eager = navalMachine();
+        String settings = "* B BETA III IV I AXLE (HQ) (EX) (IP)";
+        lazy.parseSettings(settings);
+        eager.parseSettings(settings);
+        assertEquals(eager.convert(LONG_MSG), lazy.convert(LONG_MSG));
+        for (Rotor rotor : rotors) {
+            assertEquals(rotor.name(),
+                         settings.contains(" " + rotor.name().toUpperCase()
+                                           + " "),
+                         rotor.built());
+        }
+        try {
+            lazy.parseSettings("* B BETA III IV BAD AXLE");
+            fail("bad rotor wiring not reported");
+        } catch (EnigmaException excp) {
+            assertFalse(rotors.get(rotors.size() - 1).built());
+        }
+    }
+
+}
@@ -2,17 +2,32 @@ package enigma;
 
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 
 import static enigma.EnigmaException.*;
 
-import java.util.*;
-
 /** Enigma simulator.
  *  @author rw
  */
@@ -30,6 +45,66 @@ public final class Main {
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
+    /** True iff messages are processed by streaming through NIO channels
+     *  rather than line by line. */
+    private boolean _streaming;
+
+    /** Source of input messages when _streaming. */
+    private ReadableByteChannel _inputChannel;
+
+    /** Destination of processed messages when _streaming. */
+    private WritableByteChannel _outputChannel;
+
+    /** True iff the input is binary data to be converted byte by byte
+     *  with a ByteAlphabet. */
+    private boolean _binary;
+
+    /** Size, in bytes, of the buffers used for binary data. */
+    private static final int BINARY_BUFFER_SIZE = 1 << 20;
+
+    /** True iff the input file is processed through memory mappings. */
+    private boolean _mapped;
+
+    /** Input file, when _mapped. */
+    private FileChannel _inputFile;
+
+    /** Output file, when _mapped. */
+    private FileChannel _outputFile;
+
+    /** Port on which to serve sessions, or -1 if not serving. */
+    private int _port = -1;
+
+    /** Name of the configuration file. */
+    private String _configName;
+
+    /** Directory of compiled rotor catalogs (see RotorCatalog), or null
+     *  if catalogs are not used. */
+    private Path _catalogs;
+
+    /** Known plaintext of the start of the input, when searching for the
+     *  keys under which the input decrypts to it; otherwise null. */
+    private String _crib;
+
+    /** True iff a search also covers ring settings. */
+    private boolean _rings;
+
+    /** Maximum number of keys printed by a search. */
+    private static final int MAX_KEYS = 1000;
+
+    /** File containing a sample of the plaintext language, when attacking
+     *  the input with no known plaintext; otherwise null. */
+    private String _sample;
+
+    /** Number of rotor positions kept for hill-climbing by an attack. */
+    private static final int CANDIDATES = 100;
+
+    /** Number of hill-climbing restarts per candidate and processor in an
+     *  attack. */
+    private static final int RESTARTS_PER_CORE = 2;
+
+    /** Maximum number of sessions to serve at once, when serving. */
+    private int _maxSessions = Server.DEFAULT_MAX_SESSIONS;
+
     /** Process a sequence of encryptions and decryptions, as
      *  specified by ARGS, where 1 <= ARGS.length <= 3.
      *  ARGS[0] is the name of a configuration file.
@@ -38,7 +113,53 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  The file arguments may be preceded by the option --stream, which
+     *  processes the input through NIO channels and fixed-size buffers,
+     *  rather than line by line, producing the same output, or by the
+     *  option --mmap, which requires both an input and an output file,
+     *  reads the input through memory mappings and writes the output
+     *  from a direct buffer (see MessageProcessor.transferMapped).  With
+     *  --mmap, files are read and written one byte per character
+     *  (ISO-8859-1).
+     *
+     *  With the option --binary, the machine's alphabet is the 256 byte
+     *  values (see ByteAlphabet) instead of the first line of the
+     *  configuration file, which is ignored, and notches and cycles in the
+     *  configuration file are written in hexadecimal, two digits per byte.
+     *  The input then consists of a single settings line, whose rotor
+     *  positions and plugboard are also in hexadecimal, followed by
+     *  arbitrary binary data, which is converted byte by byte to the
+     *  output with nothing else added.
+     *
+     *  With the option --catalog DIR, the configuration is loaded from a
+     *  compiled catalog (see RotorCatalog) in directory DIR, if there is
+     *  one for the current contents of ARGS[0], and otherwise such a
+     *  catalog is written to DIR after reading the configuration.
+     *
+     *  With the option --search CRIB, the input is a single ciphertext
+     *  (possibly on several lines) instead of messages, and the output is
+     *  a settings line, without a plugboard, for each key (rotors and
+     *  their positions) under which the ciphertext begins with CRIB (see
+     *  KeySearch).  The number of keys tested per second is reported on
+     *  the standard error.  When the option --rings is also given, the
+     *  search also covers the ring settings that matter, and each key is
+     *  printed with its rings.
+     *
+     *  With the option --solve SAMPLE, the input is again a single
+     *  ciphertext, but nothing of its plaintext is known.  Instead, the
+     *  file SAMPLE holds a sample of the language of the plaintext, from
+     *  which tetragram statistics are learned, and the output is the
+     *  settings line (with plugboard) under which the ciphertext best
+     *  resembles that language, followed by the decryption (see
+     *  HillClimb).  The rates of both phases are reported on the standard
+     *  error.
+     *
+     *  With the option --server PORT, only ARGS[0] is given, and instead of
+     *  processing one input, Main serves any number of independent
+     *  sessions on the local port PORT (see Server), at most N at once when
+     *  the option --sessions N is also given. */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -51,12 +172,109 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            switch (args[first]) {
+            case "--stream":
+                _streaming = true;
+                break;
+            case "--mmap":
+                _mapped = true;
+                break;
+            case "--binary":
+                _binary = true;
+                break;
+            case "--server":
+                first += 1;
+                _port = intOption(args, first);
+                break;
+            case "--sessions":
+                first += 1;
+                _maxSessions = intOption(args, first);
+                break;
+            case "--catalog":
+                first += 1;
+                if (first == args.length) {
+                    throw error("missing value for --catalog");
+                }
+                _catalogs = Paths.get(args[first]);
+                break;
+            case "--search":
+                first += 1;
+                if (first == args.length) {
+                    throw error("missing value for --search");
+                }
+                _crib = args[first];
+                break;
+            case "--rings":
+                _rings = true;
+                break;
+            case "--solve":
+                first += 1;
+                if (first == args.length) {
+                    throw error("missing value for --solve");
+                }
+                _sample = args[first];
+                break;
+            default:
+                throw error("unknown option %s", args[first]);
+            }
+            first += 1;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
+        _configName = args[0];
         _config = getInput(args[0]);
 
+        if (_mapped && _streaming) {
+            throw error("--mmap cannot be combined with --stream");
+        }
+        if (_binary && (_mapped || _port >= 0)) {
+            throw error("--binary cannot be combined with --mmap or --server");
+        }
+        if (_crib != null
+            && (_binary || _mapped || _streaming || _port >= 0)) {
+            throw error("--search cannot be combined with other modes");
+        }
+        if (_rings && _crib == null) {
+            throw error("--rings requires --search");
+        }
+        if (_sample != null
+            && (_crib != null || _binary || _mapped || _streaming
+                || _port >= 0)) {
+            throw error("--solve cannot be combined with other modes");
+        }
+
+        if (_port >= 0) {
+            if (args.length != 1) {
+                throw error("--server takes only a configuration file");
+            }
+            return;
+        }
+
+        if (_mapped) {
+            if (args.length != 3) {
+                throw error("--mmap requires input and output files");
+            }
+            _inputFile = getFileChannel(args[1], StandardOpenOption.READ);
+            _outputFile = getFileChannel(args[2], StandardOpenOption.READ,
+                                         StandardOpenOption.WRITE,
+                                         StandardOpenOption.CREATE,
+                                         StandardOpenOption.TRUNCATE_EXISTING);
+            return;
+        }
+
+        if (_streaming || _binary) {
+            _inputChannel = args.length > 1 ? getInputChannel(args[1])
+                : Channels.newChannel(System.in);
+            _outputChannel = args.length > 2 ? getOutputChannel(args[2])
+                : new FileOutputStream(FileDescriptor.out).getChannel();
+            return;
+        }
+
         if (args.length > 1) {
             _input = getInput(args[1]);
         } else {
@@ -70,6 +288,18 @@ public final class Main {
         }
     }
 
+    /** Return the value of the option whose argument is ARGS[K]. */
+    private int intOption(String[] args, int k) {
+        if (k >= args.length) {
+            throw error("missing value for %s", args[k - 1]);
+        }
+        try {
+            return Integer.parseInt(args[k]);
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s: %s", args[k - 1], args[k]);
+        }
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -88,67 +318,74 @@ public final class Main {
         }
     }
 
+    /** Return a channel reading from the file named NAME. */
+    private ReadableByteChannel getInputChannel(String name) {
+        try {
+            return new FileInputStream(name).getChannel();
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel writing to the file named NAME. */
+    private WritableByteChannel getOutputChannel(String name) {
+        try {
+            return new FileOutputStream(name).getChannel();
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a FileChannel on the file named NAME, opened with OPTIONS. */
+    private FileChannel getFileChannel(String name,
+                                       StandardOpenOption... options) {
+        try {
+            return FileChannel.open(Paths.get(name), options);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
-        _alphabet = new Alphabet(_config.nextLine());
-        int rotorCount = Integer.parseInt(_config.next());
-        int pawlCount = Integer.parseInt(_config.next());
-
-        HashMap<String, String> rotorToPermutationString = new HashMap<String, String>();
-
-        String rotorKey = "";
-        String rotorValue = "";
-        List<String> keys = new ArrayList<String>();
-        while(_config.hasNext()) {
-            String currentToken = _config.next();
-            if (currentToken.charAt(0) == '(') {
-                rotorValue = rotorValue + currentToken;
-            } else {
-                if (rotorValue.length() != 0) {
-                    rotorToPermutationString.put(rotorKey, rotorValue);
-                    keys.add(rotorKey);
-                    rotorKey = "";
-                    rotorValue = "";
-                }
-                if (rotorKey.length() != 0) {
-                    rotorKey = rotorKey + "," + currentToken;
-                } else {
-                    rotorKey = currentToken;
-                }
-            }
+        Machine M = readConfig();
+
+        if (_port >= 0) {
+            new Server(M, _alphabet, _maxSessions).serve(_port);
+            return;
         }
 
-        rotorToPermutationString.put(rotorKey, rotorValue);
-        keys.add(rotorKey);
+        if (_mapped) {
+            new MessageProcessor(M, _alphabet)
+                .transferMapped(_inputFile, _outputFile);
+            return;
+        }
 
-        List<Rotor> rotorCollection = new ArrayList<>();
+        if (_binary) {
+            transferBinary(M);
+            return;
+        }
 
-        for (String key : keys) {
-            String[] splitKey = key.split(",");
-            String rotorName = splitKey[0];
-            String rotorDescription = splitKey[1];
+        if (_crib != null) {
+            search(M);
+            return;
+        }
 
-            String notches = "";
-            Permutation permutation = new Permutation(rotorToPermutationString.get(key), _alphabet);
-            if (rotorDescription.length() > 1) {
-                notches = rotorDescription.substring(1);
-                Rotor movingRotor = new MovingRotor(rotorName, permutation, notches);
-                rotorCollection.add(movingRotor);
-            } else {
-                if (rotorDescription.equals("N")) {
-                    FixedRotor fixedRotor = new FixedRotor(rotorName, permutation, notches);
-                    rotorCollection.add(fixedRotor);
-                } else {
-                    Reflector reflector = new Reflector(rotorName, permutation, notches);
-                    rotorCollection.add(reflector);
-                }
-            }
+        if (_sample != null) {
+            solve(M);
+            return;
         }
-        Machine M = new Machine(_alphabet, rotorCount, pawlCount, rotorCollection);
 
+        if (_streaming) {
+            new MessageProcessor(M, _alphabet)
+                .transfer(_inputChannel, _outputChannel,
+                          Charset.defaultCharset());
+            return;
+        }
 
+        boolean configured = false;
         while (_input.hasNextLine()) {
             String inputLine = _input.nextLine();
             if (inputLine.length() == 0) {
@@ -157,64 +394,244 @@ public final class Main {
             }
             if (inputLine.charAt(0) == '*') {
                 setUp(M, inputLine);
+                configured = true;
             } else {
-                inputLine = inputLine.replaceAll("\\s+","");
-                inputLine = inputLine.toUpperCase();
-                String output = "";
-                String outputLine = "";
-                for (int i = 0; i < inputLine.length(); i++) {
-                    if (i % 5 == 0) {
-                        output = M.convert(output);
-                        if (outputLine.length() == 0) {
-                            outputLine += output;
-                        } else {
-                            outputLine += " " + output;
-                        }
-                        output = "";
-                    }
-                    output += inputLine.charAt(i);
-                }
-                output = M.convert(output);
-                if (outputLine.length() == 0) {
-                    outputLine += output;
-                } else {
-                    outputLine += " " + output;
+                if (!configured) {
+                    throw error("message precedes the first settings line");
                 }
-                _output.println(outputLine);
+                inputLine = inputLine.replaceAll("\\s+", "");
+                inputLine = inputLine.toUpperCase();
+                printMessageLine(M.convert(inputLine));
             }
         }
-
+        _output.flush();
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
+    /** Return an Enigma machine configured from the contents of
+     *  configuration file _config, loading it from the compiled catalog of
+     *  that configuration in _catalogs, if there is one, and otherwise
+     *  writing such a catalog for next time. */
     private Machine readConfig() {
+        if (_catalogs == null) {
+            return parseConfig();
+        }
+        byte[] key;
+        try {
+            key = RotorCatalog.key(Files.readAllBytes(Paths.get(_configName)),
+                                   _binary);
+        } catch (IOException excp) {
+            throw error("could not read %s", _configName);
+        }
+        Path catalog = _catalogs.resolve(RotorCatalog.fileName(key));
+        Machine M = RotorCatalog.read(catalog, key);
+        if (M == null) {
+            M = parseConfig();
+            RotorCatalog.write(catalog, key, M);
+        }
+        _alphabet = M.alphabet();
+        return M;
+    }
+
+    /** Return an Enigma machine configured by parsing the contents of
+     *  configuration file _config. */
+    private Machine parseConfig() {
         try {
-            _alphabet = new UpperCaseAlphabet();
-            return new Machine(_alphabet, 2, 1, null);
+            String chars = _config.nextLine();
+            _alphabet = _binary ? new ByteAlphabet() : new Alphabet(chars);
+            int rotorCount = Integer.parseInt(_config.next());
+            int pawlCount = Integer.parseInt(_config.next());
+            List<Rotor> rotorCollection = new ArrayList<>();
+            while (_config.hasNext()) {
+                rotorCollection.add(readRotor());
+            }
+            return new Machine(_alphabet, rotorCount, pawlCount,
+                               rotorCollection);
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
+        } catch (NumberFormatException excp) {
+            throw error("bad rotor or pawl count in configuration");
         }
     }
 
     /** Return a rotor, reading its description from _config. */
     private Rotor readRotor() {
         try {
-            return null;
+            String rotorName = _config.next();
+            String rotorDescription = _config.next();
+            StringBuilder cycles = new StringBuilder();
+            while (_config.hasNext("\\(.*")) {
+                cycles.append(_config.next());
+            }
+            String wiring = symbols(cycles.toString());
+            switch (rotorDescription.charAt(0)) {
+            case 'M':
+                return new MovingRotor(rotorName, wiring, _alphabet,
+                                       symbols(rotorDescription.substring(1)));
+            case 'N':
+                return new FixedRotor(rotorName, wiring, _alphabet, "");
+            case 'R':
+                return new Reflector(rotorName, wiring, _alphabet, "");
+            default:
+                throw error("bad rotor description");
+            }
         } catch (NoSuchElementException excp) {
             throw error("bad rotor description");
         }
     }
 
+    /** Print the keys of M under which the ciphertext in _input begins
+     *  with _crib, and report the rate at which keys were tested. */
+    private void search(Machine M) {
+        int[] ciphertext = readText(_input);
+        String cribText = _crib.replaceAll("\\s+", "").toUpperCase();
+        int[] crib = new int[cribText.length()];
+        crib = Arrays.copyOf(crib, _alphabet.toInts(cribText, crib));
+        KeySearch search =
+            new KeySearch(M, new Permutation("", _alphabet), ciphertext,
+                          crib, 0, _rings);
+        for (KeySearch.Key key : search.search(ForkJoinPool.commonPool(),
+                                               MAX_KEYS)) {
+            _output.println(key);
+        }
+        _output.flush();
+        System.err.printf("%,d keys tested in %.2f s (%,.0f keys/s)%n",
+                          search.tested(), search.tested() / search.rate(),
+                          search.rate());
+    }
+
+    /** Print the key of M under which the ciphertext in _input best
+     *  resembles the language of the sample in _sample, and the
+     *  decryption, and report the rates of the attack's phases. */
+    private void solve(Machine M) {
+        int[] ciphertext = readText(_input);
+        int[] sample = readSample(getInput(_sample));
+        HillClimb attack =
+            new HillClimb(M, ciphertext,
+                          new Tetragrams(sample, sample.length,
+                                         _alphabet.size()));
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        List<HillClimb.Candidate> candidates = attack.rank(pool, CANDIDATES);
+        System.err.printf("%,d positions ranked (%,.0f/s)%n",
+                          attack.evaluations(), attack.rate());
+        HillClimb.Solution solution =
+            attack.climb(candidates, pool,
+                         RESTARTS_PER_CORE * pool.getParallelism());
+        System.err.printf("%,d decryptions evaluated (%,.0f/s)%n",
+                          attack.evaluations(), attack.rate());
+        _output.println(solution);
+        setUp(M, solution.toString());
+        int[] text = ciphertext.clone();
+        M.convert(text, 0, text.length);
+        StringBuilder plaintext = new StringBuilder();
+        for (int c : text) {
+            plaintext.appendCodePoint(_alphabet.toCodePoint(c));
+        }
+        printMessageLine(plaintext.toString());
+        _output.flush();
+    }
+
+    /** Return the characters in the lines of INPUT, which must all be in
+     *  _alphabet, as indices, ignoring whitespace and case. */
+    private int[] readText(Scanner input) {
+        StringBuilder text = new StringBuilder();
+        while (input.hasNextLine()) {
+            text.append(input.nextLine().replaceAll("\\s+", "")
+                        .toUpperCase());
+        }
+        int[] result = new int[text.length()];
+        return Arrays.copyOf(result, _alphabet.toInts(text, result));
+    }
+
+    /** Return the characters of _alphabet in the lines of INPUT, as
+     *  indices, ignoring case and any characters not in _alphabet. */
+    private int[] readSample(Scanner input) {
+        StringBuilder text = new StringBuilder();
+        while (input.hasNextLine()) {
+            String line = input.nextLine().toUpperCase();
+            for (int i = 0; i < line.length(); ) {
+                int c = line.codePointAt(i);
+                if (_alphabet.contains(c)) {
+                    text.appendCodePoint(c);
+                }
+                i += Character.charCount(c);
+            }
+        }
+        int[] result = new int[text.length()];
+        return Arrays.copyOf(result, _alphabet.toInts(text, result));
+    }
+
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
     private void setUp(Machine M, String settings) {
         M.parseSettings(settings);
     }
 
+    /** Return TEXT, a list of characters of _alphabet in the
+     *  configuration file or a settings line, decoded from hexadecimal if
+     *  the input is binary. */
+    private String symbols(String text) {
+        return _binary ? ByteAlphabet.decode(text) : text;
+    }
+
+    /** Read a settings line for M from _inputChannel, set M up according
+     *  to it, and convert the remainder of _inputChannel byte by byte to
+     *  _outputChannel. */
+    private void transferBinary(Machine M) {
+        ByteBuffer in = ByteBuffer.allocateDirect(BINARY_BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocateDirect(BINARY_BUFFER_SIZE);
+        try {
+            StringBuilder line = new StringBuilder();
+            in.flip();
+            while (true) {
+                if (!in.hasRemaining()) {
+                    in.clear();
+                    if (_inputChannel.read(in) < 0) {
+                        throw error("binary input has no settings line");
+                    }
+                    in.flip();
+                }
+                char c = (char) (in.get() & 0xff);
+                if (c == '\n') {
+                    break;
+                }
+                line.append(c);
+            }
+            setUp(M, ByteAlphabet.decodeSettings(line.toString().trim(),
+                                                 M.numRotors()));
+
+            boolean eof = false;
+            while (!eof || in.hasRemaining()) {
+                M.convert(in, out);
+                out.flip();
+                while (out.hasRemaining()) {
+                    _outputChannel.write(out);
+                }
+                out.clear();
+                in.compact();
+                eof = eof || _inputChannel.read(in) < 0;
+                in.flip();
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
+        StringBuilder line =
+            new StringBuilder(msg.length() + msg.length() / 5);
+        for (int i = 0, end; i < msg.length(); i = end) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            end = i;
+            for (int k = 0; k < 5 && end < msg.length(); k += 1) {
+                end += Character.charCount(msg.codePointAt(end));
+            }
+            line.append(msg, i, end);
+        }
+        _output.println(line);
     }
 
 }
@@ -0,0 +1,425 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+import static enigma.EnigmaException.*;
+
+/** Converts a stream of input lines the way Main.process does, one buffer
+ *  at a time: lines starting with '*' set up the machine, blank lines are
+ *  copied, and every other line is converted with its whitespace removed,
+ *  upper-cased and printed in groups of five.  Lines end with "\n" or
+ *  "\r\n".  Supplementary characters, given as surrogate pairs, are
+ *  single characters of the message.  State is kept between buffers, so
+ *  a line (or surrogate pair) may be split across any number of calls to
+ *  process.  The characters of a message are gathered, as indices, into
+ *  runs of up to RUN_SIZE, and each run is converted with one call of
+ *  Machine.convert(int[], int, int), so that the rotors are stepped a run
+ *  at a time rather than once per character.
+ *  @author rw
+ */
+class MessageProcessor {
+
+    /** Size, in characters, of the buffers used by transfer. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Size, in bytes, of the output buffer used by transfer. */
+    static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+    /** Size, in bytes, of each region of the input file mapped by
+     *  transferMapped. */
+    static final long MAP_WINDOW = 1L << 28;
+
+    /** Largest number of message characters converted at once. */
+    static final int RUN_SIZE = 1 << 12;
+
+    /** Number of characters in a printed group. */
+    private static final int GROUP = 5;
+
+    /** The line separator printed at the end of each line. */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** The machine I run. */
+    private final Machine _machine;
+
+    /** The alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** True iff the next character starts a line. */
+    private boolean _atLineStart = true;
+
+    /** True iff I am in the middle of a settings line. */
+    private boolean _inSettings;
+
+    /** True iff a settings line has been processed. */
+    private boolean _configured;
+
+    /** The settings line read so far, when _inSettings. */
+    private final StringBuilder _settings = new StringBuilder();
+
+    /** The number of characters converted so far on the current line. */
+    private int _count;
+
+    /** The high surrogate of a supplementary character whose low
+     *  surrogate has yet to be read, or 0 if none. */
+    private char _high;
+
+    /** The message characters, as indices, read but not yet converted
+     *  are _run[0 .. _runLength - 1]. */
+    private final int[] _run = new int[RUN_SIZE];
+
+    /** The number of characters in _run. */
+    private int _runLength;
+
+    /** A processor that sets up and runs MACHINE, whose alphabet is
+     *  ALPHABET. */
+    MessageProcessor(Machine machine, Alphabet alphabet) {
+        _machine = machine;
+        _alphabet = alphabet;
+    }
+
+    /** Return the number of characters needed in the output array of
+     *  process for LEN input characters (and in that of finish when LEN is
+     *  0). */
+    static int maxOutput(int len) {
+        return 3 * len + NEWLINE.length();
+    }
+
+    /** Process the LEN characters of IN starting at OFF, storing the output
+     *  they produce at the beginning of OUT, which must have room for at
+     *  least maxOutput(LEN) characters.  Returns the number of characters
+     *  of output. */
+    int process(char[] in, int off, int len, char[] out) {
+        int k = 0;
+        for (int i = off; i < off + len; i += 1) {
+            char c = in[i];
+            if (_inSettings) {
+                if (c == '\n') {
+                    setUp();
+                } else {
+                    _settings.append(c);
+                }
+            } else if (c == '\n' && _high == 0) {
+                k = newline(out, flush(out, k));
+            } else if (_atLineStart && c == '*') {
+                _inSettings = true;
+                _atLineStart = false;
+                _settings.setLength(0);
+                _settings.append(c);
+            } else {
+                _atLineStart = false;
+                if (_high != 0) {
+                    if (!Character.isLowSurrogate(c)) {
+                        throw error("unpaired surrogate in input");
+                    }
+                    if (add(Character.toCodePoint(_high, c))) {
+                        k = flush(out, k);
+                    }
+                    _high = 0;
+                } else if (Character.isHighSurrogate(c)) {
+                    _high = c;
+                } else if (!isWhitespace(c) && add(c)) {
+                    k = flush(out, k);
+                }
+            }
+        }
+        return flush(out, k);
+    }
+
+    /** Finish processing at the end of the input, storing any remaining
+     *  output at the beginning of OUT.  Returns the number of characters of
+     *  output. */
+    int finish(char[] out) {
+        if (_high != 0) {
+            throw error("unpaired surrogate in input");
+        }
+        if (_inSettings) {
+            setUp();
+            return 0;
+        } else if (!_atLineStart) {
+            return newline(out, 0);
+        }
+        return 0;
+    }
+
+    /** Process all of IN to the end, writing the results to OUT, both
+     *  encoded in CHARSET.  Uses a fixed amount of buffer storage no matter
+     *  how long the input is. */
+    void transfer(ReadableByteChannel in, WritableByteChannel out,
+                  Charset charset) {
+        transfer(in, out, charset, BUFFER_SIZE, OUTPUT_BUFFER_SIZE);
+    }
+
+    /** Process all of IN to the end, writing the results to OUT, both
+     *  encoded in CHARSET, using input buffers of INSIZE characters and
+     *  bytes and an output buffer of OUTSIZE bytes.  Output is written
+     *  whenever the output buffer fills and whenever a read of IN does not
+     *  fill the input buffer, so that interactive sources get their
+     *  replies promptly. */
+    void transfer(ReadableByteChannel in, WritableByteChannel out,
+                  Charset charset, int inSize, int outSize) {
+        CharsetDecoder decoder = charset.newDecoder();
+        CharsetEncoder encoder = charset.newEncoder();
+        ByteBuffer bytesIn = ByteBuffer.allocateDirect(inSize);
+        CharBuffer charsIn = CharBuffer.allocate(inSize);
+        char[] charsOut = new char[maxOutput(inSize)];
+        ByteBuffer bytesOut = ByteBuffer.allocateDirect(outSize);
+        try {
+            boolean eof;
+            do {
+                eof = in.read(bytesIn) < 0;
+                boolean partial = bytesIn.hasRemaining();
+                bytesIn.flip();
+                CoderResult result;
+                do {
+                    result = decoder.decode(bytesIn, charsIn, eof);
+                    check(result);
+                    drain(charsIn, charsOut, encoder, bytesOut, out);
+                } while (result.isOverflow());
+                bytesIn.compact();
+                if (partial && !eof) {
+                    write(bytesOut, out);
+                }
+            } while (!eof);
+            CoderResult result;
+            do {
+                result = decoder.flush(charsIn);
+                drain(charsIn, charsOut, encoder, bytesOut, out);
+            } while (result.isOverflow());
+
+            CharBuffer tail = CharBuffer.wrap(charsOut, 0, finish(charsOut));
+            encode(tail, encoder, bytesOut, out, true);
+            while (encoder.flush(bytesOut).isOverflow()) {
+                write(bytesOut, out);
+            }
+            write(bytesOut, out);
+        } catch (CharacterCodingException excp) {
+            throw error("input is not valid %s", charset.name());
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Process all of the file IN, writing the results to the file OUT,
+     *  which is emptied first.  IN is read through memory mappings, one
+     *  MAP_WINDOW-sized region at a time, and scanned in place, so that
+     *  its bytes are never copied onto the heap except as the indices of
+     *  the runs handed to the machine.  The output is built in a direct
+     *  buffer of OUTPUT_BUFFER_SIZE bytes and written to OUT with
+     *  FileChannel.write whenever it fills, rather than through mappings
+     *  of OUT, since a mapping must be sized before its contents are
+     *  known and cannot be released on demand.  Each byte is one
+     *  character (ISO-8859-1), so my alphabet must consist of characters
+     *  in the range \u0000-\u00ff. */
+    void transferMapped(FileChannel in, FileChannel out) {
+        for (int i = 0; i < _alphabet.size(); i += 1) {
+            if (_alphabet.toCodePoint(i) > 0xff) {
+                throw error("alphabet has characters that are not bytes");
+            }
+        }
+        ByteBuffer bytesOut = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+        try {
+            out.truncate(0);
+            out.position(0);
+            long size = in.size();
+            for (long base = 0; base < size; base += MAP_WINDOW) {
+                MappedByteBuffer bytesIn =
+                    in.map(FileChannel.MapMode.READ_ONLY, base,
+                           Math.min(MAP_WINDOW, size - base));
+                process(bytesIn, bytesOut, out);
+            }
+            if (_inSettings) {
+                setUp();
+            } else if (!_atLineStart) {
+                flush(bytesOut, out);
+                newline(bytesOut);
+            }
+            write(bytesOut, out);
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Process the bytes of IN, each one character, as process does
+     *  characters, storing the output in BYTESOUT and writing BYTESOUT to
+     *  OUT whenever it might not have room for a run.  Characters of a
+     *  message may be left in the current run. */
+    private void process(ByteBuffer in, ByteBuffer bytesOut,
+                         WritableByteChannel out) throws IOException {
+        int end = in.limit();
+        for (int i = in.position(); i < end; i += 1) {
+            char c = (char) (in.get(i) & 0xff);
+            if (_inSettings) {
+                if (c == '\n') {
+                    setUp();
+                } else {
+                    _settings.append(c);
+                }
+            } else if (c == '\n') {
+                flush(bytesOut, out);
+                newline(bytesOut);
+            } else if (_atLineStart && c == '*') {
+                _inSettings = true;
+                _atLineStart = false;
+                _settings.setLength(0);
+                _settings.append(c);
+            } else {
+                _atLineStart = false;
+                if (!isWhitespace(c) && add(c)) {
+                    flush(bytesOut, out);
+                }
+            }
+        }
+        in.position(end);
+    }
+
+    /** Process the characters in CHARSIN, leaving it empty, and encode the
+     *  results stored in CHARSOUT with ENCODER into BYTESOUT, writing
+     *  BYTESOUT to OUT when it fills. */
+    private void drain(CharBuffer charsIn, char[] charsOut,
+                       CharsetEncoder encoder, ByteBuffer bytesOut,
+                       WritableByteChannel out) throws IOException {
+        charsIn.flip();
+        int n = process(charsIn.array(),
+                        charsIn.arrayOffset() + charsIn.position(),
+                        charsIn.remaining(), charsOut);
+        charsIn.clear();
+        encode(CharBuffer.wrap(charsOut, 0, n), encoder, bytesOut, out,
+               false);
+    }
+
+    /** Encode all of CHARS into BYTESOUT with ENCODER, writing BYTESOUT to
+     *  OUT whenever it fills.  ENDOFINPUT is true iff CHARS are the last
+     *  characters to be encoded. */
+    private void encode(CharBuffer chars, CharsetEncoder encoder,
+                        ByteBuffer bytesOut, WritableByteChannel out,
+                        boolean endOfInput) throws IOException {
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, bytesOut, endOfInput);
+            check(result);
+            if (result.isOverflow()) {
+                write(bytesOut, out);
+            }
+        } while (result.isOverflow());
+    }
+
+    /** Write the contents of BUFFER to OUT and clear it. */
+    private static void write(ByteBuffer buffer, WritableByteChannel out)
+        throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Throw an exception if RESULT reports a coding error. */
+    private static void check(CoderResult result)
+        throws CharacterCodingException {
+        if (result.isError()) {
+            result.throwException();
+        }
+    }
+
+    /** Set up my machine from the settings line accumulated so far. */
+    private void setUp() {
+        int end = _settings.length();
+        if (end > 0 && _settings.charAt(end - 1) == '\r') {
+            _settings.setLength(end - 1);
+        }
+        _machine.parseSettings(_settings.toString());
+        _configured = true;
+        _inSettings = false;
+        _atLineStart = true;
+    }
+
+    /** End the current line, storing a line separator, as bytes, in
+     *  OUT, which must have room for it. */
+    private void newline(ByteBuffer out) {
+        for (int i = 0; i < NEWLINE.length(); i += 1) {
+            out.put((byte) NEWLINE.charAt(i));
+        }
+        _atLineStart = true;
+        _count = 0;
+    }
+
+    /** End the current line, storing a line separator in OUT at K.
+     *  Returns the index in OUT following the separator. */
+    private int newline(char[] out, int k) {
+        for (int i = 0; i < NEWLINE.length(); i += 1) {
+            out[k] = NEWLINE.charAt(i);
+            k += 1;
+        }
+        _atLineStart = true;
+        _count = 0;
+        return k;
+    }
+
+    /** Add the upper-case form of character (code point) C, which must
+     *  be in my alphabet, to the current run.  Returns true iff the run
+     *  is then full. */
+    private boolean add(int c) {
+        if (!_configured) {
+            throw error("message precedes the first settings line");
+        }
+        _run[_runLength] = _alphabet.toInt(Character.toUpperCase(c));
+        _runLength += 1;
+        return _runLength == RUN_SIZE;
+    }
+
+    /** Convert the current run, if any, storing its characters in OUT at
+     *  K, each preceded by a blank if it starts a new group, and empty
+     *  the run.  Returns the index in OUT following the conversion. */
+    private int flush(char[] out, int k) {
+        _machine.convert(_run, 0, _runLength);
+        for (int i = 0; i < _runLength; i += 1) {
+            if (_count > 0 && _count % GROUP == 0) {
+                out[k] = ' ';
+                k += 1;
+            }
+            _count += 1;
+            k += Character.toChars(_alphabet.toCodePoint(_run[i]), out, k);
+        }
+        _runLength = 0;
+        return k;
+    }
+
+    /** Convert the current run, if any, storing its characters, each a
+     *  byte, in BYTESOUT as flush(char[], int) stores them, and empty the
+     *  run.  BYTESOUT is first written to OUT unless it has room for a
+     *  full run and a line separator. */
+    private void flush(ByteBuffer bytesOut, WritableByteChannel out)
+        throws IOException {
+        if (bytesOut.remaining() < 2 * RUN_SIZE + NEWLINE.length()) {
+            write(bytesOut, out);
+        }
+        _machine.convert(_run, 0, _runLength);
+        for (int i = 0; i < _runLength; i += 1) {
+            if (_count > 0 && _count % GROUP == 0) {
+                bytesOut.put((byte) ' ');
+            }
+            _count += 1;
+            bytesOut.put((byte) _alphabet.toCodePoint(_run[i]));
+        }
+        _runLength = 0;
+    }
+
+    /** Return true iff C is a whitespace character as matched by the
+     *  regular expression \s. */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+            || c == '\f' || c == '\r';
+    }
+
+}
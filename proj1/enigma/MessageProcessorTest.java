@@ -0,0 +1,145 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MessageProcessor class.
+ *  @author rw
+ */
+public class MessageProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Sample input, in the format of Main's input files. */
+    private static final String INPUT =
+        "* B BETA I II III AAAA (AQ) (EP)\r\n"
+        + "Hello world\r\n"
+        + "\n"
+        + "* B BETA I II III AAAA (AQ) (EP)\n"
+        + "IHBDQ QMTQZ";
+
+    /** Expected output for INPUT. */
+    private static final String OUTPUT =
+        String.format("IHBDQ QMTQZ%n%nHELLO WORLD%n");
+
+    /** Return the result of processing INPUT in pieces of size N. */
+    private String processInPieces(int n) {
+        return processInPieces(new MessageProcessor(MachineTest.navalMachine(),
+                                                    UPPER),
+                               INPUT, n);
+    }
+
+    /** Return the result of processing TEXT with PROC in pieces of size
+     *  N. */
+    private String processInPieces(MessageProcessor proc, String text, int n) {
+        char[] in = text.toCharArray();
+        char[] out = new char[MessageProcessor.maxOutput(n)];
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < in.length; i += n) {
+            int k = proc.process(in, i, Math.min(n, in.length - i), out);
+            result.append(out, 0, k);
+        }
+        result.append(out, 0, proc.finish(out));
+        return result.toString();
+    }
+
+    @Test
+    public void checkPieces() {
+        for (int n = 1; n <= INPUT.length(); n += 1) {
+            assertEquals("pieces of " + n, OUTPUT, processInPieces(n));
+        }
+    }
+
+    @Test
+    public void checkTransfer() {
+        MessageProcessor proc =
+            new MessageProcessor(MachineTest.navalMachine(), UPPER);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        proc.transfer(Channels.newChannel(new ByteArrayInputStream(
+                          INPUT.getBytes(StandardCharsets.UTF_8))),
+                      Channels.newChannel(out), StandardCharsets.UTF_8);
+        assertEquals(OUTPUT, out.toString(StandardCharsets.UTF_8));
+    }
+
+    /** Return the result of processing TEXT with transferMapped from one
+     *  temporary file to another that initially contains OLD. */
+    private String transferMapped(String text, String old)
+        throws IOException {
+        Path input = Files.createTempFile("enigma", ".inp");
+        Path output = Files.createTempFile("enigma", ".out");
+        try {
+            Files.write(input, text.getBytes(StandardCharsets.ISO_8859_1));
+            Files.write(output, old.getBytes(StandardCharsets.ISO_8859_1));
+            try (FileChannel in = FileChannel.open(input);
+                 FileChannel out = FileChannel.open(output,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+                new MessageProcessor(MachineTest.navalMachine(), UPPER)
+                    .transferMapped(in, out);
+            }
+            return new String(Files.readAllBytes(output),
+                              StandardCharsets.ISO_8859_1);
+        } finally {
+            Files.delete(input);
+            Files.delete(output);
+        }
+    }
+
+    @Test
+    public void checkTransferMapped() throws IOException {
+        assertEquals(OUTPUT, transferMapped(INPUT, INPUT + INPUT));
+        int letters = MessageProcessor.OUTPUT_BUFFER_SIZE * 5 / 6 + 1;
+        StringBuilder text = new StringBuilder("* B BETA I II III AAAA\n");
+        for (int i = 0; i < letters; i += 1) {
+            text.append('A');
+        }
+        String expected =
+            processInPieces(new MessageProcessor(MachineTest.navalMachine(),
+                                                 UPPER),
+                            text.toString(), MessageProcessor.BUFFER_SIZE);
+        assertEquals(MessageProcessor.OUTPUT_BUFFER_SIZE
+                     + System.lineSeparator().length(), expected.length());
+        assertEquals(expected, transferMapped(text.toString(), ""));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnconfigured() {
+        MessageProcessor proc =
+            new MessageProcessor(MachineTest.navalMachine(), UPPER);
+        char[] in = "HELLO".toCharArray();
+        proc.process(in, 0, in.length, new char[20]);
+    }
+
+    @Test
+    public void checkSupplementaryPieces() {
+        String input = "* B BETA I II III " + MachineTest.bold("AAAA (AQ) (EP)")
+            + "\n" + MachineTest.bold("HELLO WORLD") + "\n";
+        String output =
+            MachineTest.bold("IHBDQ QMTQZ") + System.lineSeparator();
+        for (int n = 1; n <= input.length(); n += 1) {
+            MessageProcessor proc =
+                new MessageProcessor(MachineTest.supplementaryMachine(),
+                                     new Alphabet(MachineTest.bold(
+                                         UPPER_STRING)));
+            assertEquals("pieces of " + n, output,
+                         processInPieces(proc, input, n));
+        }
+    }
+
+}
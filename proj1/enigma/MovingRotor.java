@@ -1,5 +1,7 @@
 package enigma;
 
+import java.nio.IntBuffer;
+
 import static enigma.EnigmaException.*;
 
 /** Class that represents a rotating rotor in the enigma machine.
@@ -15,9 +17,48 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm, notches);
     }
+
+    /** A rotor as above whose permutation is given by the cycles CYCLES
+     *  over the alphabet ALPHA, parsed when first needed. */
+    MovingRotor(String name, String cycles, Alphabet alpha, String notches) {
+        super(name, cycles, alpha, notches);
+    }
+
+    /** A rotor as above whose permutation maps each index K of ALPHA to
+     *  WIRING.get(K), read when first needed. */
+    MovingRotor(String name, IntBuffer wiring, Alphabet alpha,
+                String notches) {
+        super(name, wiring, alpha, notches);
+    }
+
+    /** A copy of BASE with ring RING (see Rotor(Rotor, int)). */
+    MovingRotor(Rotor base, int ring) {
+        super(base, ring);
+    }
+
+    @Override
+    Rotor ringed(int ring) {
+        return new MovingRotor(this, ring);
+    }
+
     /** Return true iff I have a ratchet and can move. */
     @Override
     boolean rotates() {
         return true;
     }
+
+    /** Return the number of advances from setting SETTING after which I
+     *  will be at a notch (0 if I am at one at SETTING), or -1 if I have no
+     *  notches.  Found from my notch mask a word at a time, so that a
+     *  Machine can skip over the advances in between. */
+    @Override
+    int notchDistance(int setting) {
+        int next = nextNotch(setting);
+        if (next >= 0) {
+            return next - setting;
+        }
+        next = nextNotch(0);
+        return next < 0 ? -1 : next + size() - setting;
+    }
+
 }
@@ -47,8 +47,109 @@ public class MovingRotorTest {
                                 notches);
     }
 
+    @Test
+    public void checkRotorAtA() {
+        for (String name : NAVALA_MAP.keySet()) {
+            setRotor(name, NAVALA, "");
+            checkRotor(name + "(A)", UPPER_STRING, NAVALA_MAP.get(name));
+        }
+    }
+
     @Test
     public void checkRotorSet() {
+        for (String name : NAVALA_MAP.keySet()) {
+            setRotor(name, NAVALA, "");
+            rotor.set('B');
+            checkRotor(name + "(B)", UPPER_STRING, NAVALB_MAP.get(name));
+            rotor.set(25);
+            checkRotor(name + "(Z)", UPPER_STRING, NAVALZ_MAP.get(name));
+        }
+    }
+
+    @Test
+    public void checkRotorAdvance() {
+        setRotor("I", NAVALA, "Q");
+        rotor.set('Y');
+        rotor.advance();
+        checkRotor("I(Z)", UPPER_STRING, NAVALZ_MAP.get("I"));
+        rotor.advance();
+        checkRotor("I(A)", UPPER_STRING, NAVALA_MAP.get("I"));
+        assertEquals(0, rotor.getSetting());
+    }
+
+    @Test
+    public void checkPrepare() {
+        for (String name : NAVALA_MAP.keySet()) {
+            setRotor(name, NAVALA, "");
+            int[][] unprepared = new int[26][26];
+            for (int s = 0; s < 26; s += 1) {
+                for (int p = 0; p < 26; p += 1) {
+                    unprepared[s][p] = rotor.convertForward(p, s);
+                }
+            }
+            rotor.prepare();
+            rotor.prepare();
+            for (int s = 0; s < 26; s += 1) {
+                for (int p = 0; p < 26; p += 1) {
+                    assertEquals(unprepared[s][p], rotor.convertForward(p, s));
+                    assertEquals(p, rotor.convertBackward(unprepared[s][p],
+                                                          s));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkLargeAlphabet() {
+        StringBuilder chars = new StringBuilder();
+        StringBuilder cycle = new StringBuilder("(");
+        int n = Rotor.MAX_TABLE_SIZE + 50;
+        for (int i = 0; i < n; i += 1) {
+            chars.append((char) ('\u0100' + i));
+            if (i % 3 != 0) {
+                cycle.append((char) ('\u0100' + i));
+            }
+        }
+        cycle.append(")");
+        Alphabet alpha = new Alphabet(chars.toString());
+        Permutation perm = new Permutation(cycle.toString(), alpha);
+        rotor = new MovingRotor("big", perm, "");
+        for (int s = 0; s < n; s += 37) {
+            rotor.set(s);
+            for (int p = 0; p < n; p += 1) {
+                int e = perm.wrap(perm.permute(p + s) - s);
+                assertEquals(e, rotor.convertForward(p));
+                assertEquals(p, rotor.convertBackward(e));
+            }
+        }
+    }
+
+    @Test
+    public void checkNotches() {
+        rotor = new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                                "EQ");
+        assertTrue(rotor.atNotch(4));
+        assertFalse(rotor.atNotch(5));
+        assertEquals(0, rotor.notchDistance(4));
+        assertEquals(16 - 5, rotor.notchDistance(5));
+        assertEquals(4 + 26 - 17, rotor.notchDistance(17));
+
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < 200; i += 1) {
+            chars.append((char) ('\u0100' + i));
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        rotor = new MovingRotor("big", new Permutation("", alpha),
+                                "\u0105\u0180");
+        for (int s = 0; s < 200; s += 1) {
+            assertEquals(s == 5 || s == 128, rotor.atNotch(s));
+            int d = s <= 5 ? 5 - s : s <= 128 ? 128 - s : 205 - s;
+            assertEquals(d, rotor.notchDistance(s));
+        }
+        assertEquals(-1, new MovingRotor("none", new Permutation("", alpha),
+                                         "").notchDistance(7));
+        assertEquals(-1, new FixedRotor("fixed", new Permutation("", alpha),
+                                        "").notchDistance(7));
     }
 
 }
@@ -1,6 +1,6 @@
 package enigma;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 import static enigma.EnigmaException.*;
 
@@ -13,10 +13,10 @@ class Permutation {
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** permuted is a dictionary that maps keys to its permutation */
-    private HashMap<Character, Character> _permuted = new HashMap<>();
-    /** inverted is also a dictionary, but maps keys to permutation coming back */
-    private HashMap<Character, Character> _inverted = new HashMap<>();
+    /** _forward[K] is the index that index K maps to. */
+    private int[] _forward;
+    /** _inverse[K] is the index that maps to index K. */
+    private int[] _inverse;
 
     /** Set this Permutation to that specified by CYCLES, a string in the
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
@@ -24,26 +24,95 @@ class Permutation {
      *  included in any cycle map to themselves. Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        String[] cyclesArray = cycles.split("\\)");
-        for (String cycle : cyclesArray) {
-            for (int i = 1; i < cycle.length(); i++) {
-                char key = cycle.charAt(i);
-                if (i + 1 >= cycle.length()) {
-                    _permuted.put(key, cycle.charAt(1));
-                } else {
-                    _permuted.put(key, cycle.charAt(i + 1));
-                }
+        int n = alphabet.size();
+        _forward = new int[n];
+        _inverse = new int[n];
+        compile(cycles, 0, cycles.length(), alphabet, _forward);
+        for (int i = 0; i < n; i += 1) {
+            _inverse[_forward[i]] = i;
+        }
+    }
+
+    /** Set this Permutation to the one that maps each index K of ALPHABET
+     *  to FORWARD[K], which must be a permutation of those indices. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        _alphabet = alphabet;
+        int n = alphabet.size();
+        if (forward.length != n) {
+            throw error("permutation table has the wrong size");
+        }
+        _forward = forward.clone();
+        _inverse = new int[n];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < n; i += 1) {
+            if (_forward[i] < 0 || _forward[i] >= n
+                || _inverse[_forward[i]] != -1) {
+                throw error("permutation table is not a permutation");
             }
+            _inverse[_forward[i]] = i;
         }
+    }
 
-        for (String cycle : cyclesArray) {
-            for (int i = 1; i < cycle.length(); i++) {
-                char key = cycle.charAt(i);
-                if (i - 1 < 1) {
-                    _inverted.put(key, cycle.charAt(cycle.length() - 1));
+    /** Fill in FORWARD, which has one element per character of ALPHABET,
+     *  so that FORWARD[K] is the index that index K maps to in the
+     *  permutation given by the cycle notation in CYCLES from START to
+     *  END, whose characters may be any code points.  Characters that are
+     *  in no cycle map to themselves.  Rejects characters outside
+     *  ALPHABET, characters appearing more than once, and unbalanced or
+     *  nested parentheses.  Allocates nothing unless CYCLES is in error,
+     *  so that a caller may parse into the same FORWARD repeatedly. */
+    static void compile(CharSequence cycles, int start, int end,
+                        Alphabet alphabet, int[] forward) {
+        Arrays.fill(forward, -1);
+        int first, prev, c;
+        first = prev = c = -1;
+        boolean inCycle = false;
+        for (int i = start; i < end; i += Character.charCount(c)) {
+            c = Character.codePointAt(cycles, i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            } else if (c == '(') {
+                if (inCycle) {
+                    throw error("nested '(' in cycles %s",
+                                cycles.subSequence(start, end));
+                }
+                inCycle = true;
+                first = prev = -1;
+            } else if (c == ')') {
+                if (!inCycle) {
+                    throw error("unmatched ')' in cycles %s",
+                                cycles.subSequence(start, end));
+                }
+                if (prev != -1) {
+                    forward[prev] = first;
+                }
+                inCycle = false;
+            } else {
+                if (!inCycle) {
+                    throw error("character '%c' outside of a cycle", c);
+                }
+                if (!alphabet.contains(c)) {
+                    throw error("character '%c' not in alphabet", c);
+                }
+                int k = alphabet.toInt(c);
+                if (forward[k] != -1 || k == first || k == prev) {
+                    throw error("character '%c' repeated in cycles", c);
+                }
+                if (prev == -1) {
+                    first = k;
                 } else {
-                    _inverted.put(key, cycle.charAt(i - 1));
+                    forward[prev] = k;
                 }
+                prev = k;
+            }
+        }
+        if (inCycle) {
+            throw error("unterminated cycle in %s",
+                        cycles.subSequence(start, end));
+        }
+        for (int k = 0; k < forward.length; k += 1) {
+            if (forward[k] == -1) {
+                forward[k] = k;
             }
         }
     }
@@ -57,31 +126,38 @@ class Permutation {
         return r;
     }
 
+    /** Return true iff I map each index K to FORWARD[K]. */
+    boolean maps(int[] forward) {
+        return Arrays.equals(_forward, forward);
+    }
+
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        if (_permuted.containsKey(_alphabet.toChar(p))) {
-            return _alphabet.toInt(_permuted.get(_alphabet.toChar(p))) % _alphabet.size();
-        } else {
-            return p % _alphabet.size();
-        }
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        if (_inverted.containsKey(_alphabet.toChar(c))) {
-            return _alphabet.toInt(_inverted.get(_alphabet.toChar(c))) % _alphabet.size();
-        } else {
-            return c % _alphabet.size();
-        }
+        return _inverse[wrap(c)];
     }
 
+    /** Return the result of applying this permutation to the index of P
+     *  in ALPHABET, and converting the result to a character of ALPHABET. */
+    char permute(char p) {
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
+    }
+
+    /** Return the result of applying the inverse of this permutation to C. */
+    char invert(char c) {
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
+    }
 
     /** Return the alphabet used to initialize this Permutation. */
     Alphabet alphabet() {
@@ -91,7 +167,11 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
+        for (int i = 0; i < _forward.length; i += 1) {
+            if (_forward[i] == i) {
+                return false;
+            }
+        }
         return true;
     }
 }
-
@@ -46,6 +46,72 @@ public class PermutationTest {
 
     @Test
     public void checkIdTransform() {
+        perm = new Permutation("", UPPER);
+        checkPerm("identity", UPPER_STRING, UPPER_STRING);
+        assertFalse(perm.derangement());
+    }
+
+    @Test
+    public void checkNavalA() {
+        for (String name : NAVALA_MAP.keySet()) {
+            perm = new Permutation(NAVALA.get(name), UPPER);
+            checkPerm(name, UPPER_STRING, NAVALA_MAP.get(name));
+        }
+    }
+
+    @Test
+    public void checkNavalBZ() {
+        for (String name : NAVALB_MAP.keySet()) {
+            perm = new Permutation(NAVALB.get(name), UPPER);
+            checkPerm(name + "(B)", UPPER_STRING, NAVALB_MAP.get(name));
+            perm = new Permutation(NAVALZ.get(name), UPPER);
+            checkPerm(name + "(Z)", UPPER_STRING, NAVALZ_MAP.get(name));
+        }
+    }
+
+    @Test
+    public void checkWrap() {
+        perm = new Permutation(NAVALA.get("I"), UPPER);
+        assertEquals(perm.permute(0), perm.permute(26));
+        assertEquals(perm.permute(25), perm.permute(-1));
+        assertEquals(perm.invert(3), perm.invert(-23));
+    }
+
+    @Test
+    public void checkDerangement() {
+        assertTrue(new Permutation(NAVALA.get("B"), UPPER).derangement());
+        assertFalse(new Permutation(NAVALA.get("I"), UPPER).derangement());
+    }
+
+    @Test
+    public void checkSmallAlphabet() {
+        perm = new Permutation("(BAC) (D)", new Alphabet("ABCDE"));
+        checkPerm("ABCDE", "ABCDE", "CABDE");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkRepeatedCharacter() {
+        new Permutation("(ABC) (DA)", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkRepeatedInCycle() {
+        new Permutation("(ABA)", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkNotInAlphabet() {
+        new Permutation("(AB1)", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnterminatedCycle() {
+        new Permutation("(AB) (CD", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnmatchedParen() {
+        new Permutation("AB)", UPPER);
     }
 
 }
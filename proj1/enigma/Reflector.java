@@ -1,5 +1,7 @@
 package enigma;
 
+import java.nio.IntBuffer;
+
 import static enigma.EnigmaException.*;
 
 /** Class that represents a reflector in the enigma.
@@ -13,14 +15,30 @@ class Reflector extends FixedRotor {
         super(name, perm, notches);
     }
 
+    /** A reflector named NAME whose permutation is given by the cycles
+     *  CYCLES over the alphabet ALPHA, parsed when first needed. */
+    Reflector(String name, String cycles, Alphabet alpha, String notches) {
+        super(name, cycles, alpha, notches);
+    }
+
+    /** A reflector named NAME whose permutation maps each index K of the
+     *  alphabet ALPHA to WIRING.get(K), read when first needed. */
+    Reflector(String name, IntBuffer wiring, Alphabet alpha, String notches) {
+        super(name, wiring, alpha, notches);
+    }
+
     /** Return true iff I reflect. */
     boolean reflecting() {
         return true;
     }
 
+    /** Return the conversion of P, whatever SETTING is, since I have only
+     *  one position: from my prepared table at setting 0, when I have
+     *  one, as for any other rotor. */
     @Override
-    int convertForward(int p) {
-        return  _permutation.permute(p);
+    int convertForward(int p, int setting) {
+        int[] table = forwardTable();
+        return table != null ? table[p] : permutation().permute(p);
     }
 
     @Override
@@ -1,29 +1,207 @@
 package enigma;
 
+import java.nio.IntBuffer;
+
 import static enigma.EnigmaException.*;
 
 /** Superclass that represents a rotor in the enigma machine.
+ *
+ *  A rotor's ring setting (Ringstellung) turns its wiring relative to
+ *  the letters on its rim, which show its setting in the machine's window
+ *  and determine when its notches engage.  With ring R at window setting
+ *  W, the wiring is that of ring 0 at setting W - R.  So that conversion
+ *  costs nothing extra, the settings a rotor is given are these offsets
+ *  (W - R, modulo the alphabet size), and a rotor with a non-zero ring is
+ *  a separate Rotor (see withRing) that shares its wiring tables with the
+ *  rotor at ring 0, but whose notch mask is turned by -R, so that it is
+ *  at a notch at offset W - R exactly when the rotor at ring 0 is at one
+ *  at W.
  *  @author rw
  */
 class Rotor {
-    /** settings variable */
-    public int _setting;
+    /** My setting when I am used on my own.  A Machine keeps the settings
+     *  of its rotors itself, and passes them to the methods below that
+     *  take a SETTING argument, so that one rotor can be shared by many
+     *  machines. */
+    private int _setting;
 
     /** My name. */
     private final String _name;
 
-    /** The permutation implemented by this rotor in its 0 position. */
-    public Permutation _permutation;
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The permutation implemented by this rotor in its 0 position, or
+     *  null if it has not yet been built from _cycles. */
+    private volatile Permutation _permutation;
+
+    /** When non-null, the cycles of my permutation, from which
+     *  permutation() builds it when first needed.  A configuration may
+     *  describe many more rotors than any settings line selects, and
+     *  only those selected need their wiring. */
+    private final String _cycles;
+
+    /** When non-null, the wiring of my permutation as stored in a
+     *  compiled catalog (see RotorCatalog): the index each index maps
+     *  to.  permutation() builds my permutation from it when first needed,
+     *  as from _cycles. */
+    private final IntBuffer _wiring;
+
+    /** The settings at which I am at a notch: setting S is one iff bit
+     *  S % 64 of _notches[S / 64] is 1. */
+    private final long[] _notches;
+
+    /** The size of my alphabet. */
+    private final int _size;
+
+    /** My ring setting. */
+    private final int _ring;
+
+    /** The rotor that I am a copy of with a different ring setting: the
+     *  rotor with ring 0, which is myself if my ring is 0. */
+    private final Rotor _base;
 
-    /**variable for my notches */
-    private String _notches;
+    /** In the rotor with ring 0, _ringed[R], when non-null, is its copy
+     *  with ring R, created when first needed. */
+    private Rotor[] _ringed;
+
+    /** Largest alphabet for which I precompute my per-setting wiring. */
+    static final int MAX_TABLE_SIZE = 256;
+
+    /** When non-null, _forwardTable[S * size() + P] is the result of
+     *  convertForward(P) at setting S.  The tables are built by prepare,
+     *  when a Machine first inserts me, so that the rotors a
+     *  configuration describes but no settings line selects cost no
+     *  more than their permutations. */
+    private int[] _forwardTable;
+    /** When non-null, _backwardTable[S * size() + E] is the result of
+     *  convertBackward(E) at setting S. */
+    private int[] _backwardTable;
 
     /** A rotor named NAME whose permutation is given by PERM. */
     Rotor(String name, Permutation perm, String notches) {
+        this(name, perm, null, null, perm.alphabet(), notches);
+    }
+
+    /** A rotor named NAME whose permutation is given by the cycles CYCLES
+     *  over the alphabet ALPHA, which are not parsed until needed. */
+    Rotor(String name, String cycles, Alphabet alpha, String notches) {
+        this(name, null, cycles, null, alpha, notches);
+    }
+
+    /** A rotor named NAME whose permutation maps each index K of the
+     *  alphabet ALPHA to WIRING.get(K), which is not read until needed. */
+    Rotor(String name, IntBuffer wiring, Alphabet alpha, String notches) {
+        this(name, null, null, wiring, alpha, notches);
+    }
+
+    /** A rotor named NAME with alphabet ALPHA whose permutation is PERM
+     *  or, if that is null, given by the cycles CYCLES or, if that is
+     *  null, by WIRING. */
+    private Rotor(String name, Permutation perm, String cycles,
+                  IntBuffer wiring, Alphabet alpha, String notches) {
         _name = name;
         _permutation = perm;
-        _notches = notches;
+        _cycles = cycles;
+        _wiring = wiring;
+        _alphabet = alpha;
         _setting = 0;
+        _size = alpha.size();
+        _notches = new long[(_size + 63) / 64];
+        for (int i = 0; i < notches.length(); ) {
+            int c = notches.codePointAt(i);
+            int s = alpha.toInt(c);
+            _notches[s >>> 6] |= 1L << s;
+            i += Character.charCount(c);
+        }
+        _ring = 0;
+        _base = this;
+    }
+
+    /** A copy of BASE, which has ring 0, with its ring at RING.  The copy
+     *  shares BASE's permutation and tables. */
+    Rotor(Rotor base, int ring) {
+        base.prepare();
+        _name = base._name;
+        _alphabet = base._alphabet;
+        _cycles = base._cycles;
+        _wiring = base._wiring;
+        _permutation = base.permutation();
+        _size = base._size;
+        _forwardTable = base._forwardTable;
+        _backwardTable = base._backwardTable;
+        _notches = new long[base._notches.length];
+        for (int s = base.nextNotch(0); s >= 0;
+             s = s + 1 < _size ? base.nextNotch(s + 1) : -1) {
+            int offset = s >= ring ? s - ring : s - ring + _size;
+            _notches[offset >>> 6] |= 1L << offset;
+        }
+        _ring = ring;
+        _base = base;
+    }
+
+    /** Return a copy of me with ring RING (of my own class; see
+     *  Rotor(Rotor, int)).  Subclasses override this. */
+    Rotor ringed(int ring) {
+        return new Rotor(this, ring);
+    }
+
+    /** Return the rotor that is the same as me but with ring RING: the
+     *  rotor with ring 0 if RING is 0, and otherwise its copy with ring
+     *  RING, which is created the first time it is asked for and then
+     *  reused, so that setting rings repeatedly allocates nothing. */
+    Rotor withRing(int ring) {
+        if (ring == 0) {
+            return _base;
+        }
+        if (ring < 0 || ring >= _size) {
+            throw error("ring setting out of range");
+        }
+        if (reflecting()) {
+            throw error("reflector %s has no ring setting", _name);
+        }
+        Rotor base = _base;
+        synchronized (base) {
+            if (base._ringed == null) {
+                base._ringed = new Rotor[_size];
+            }
+            if (base._ringed[ring] == null) {
+                base._ringed[ring] = base.ringed(ring);
+            }
+            return base._ringed[ring];
+        }
+    }
+
+    /** Return my ring setting. */
+    int ring() {
+        return _ring;
+    }
+
+    /** Return the rotor with ring 0 of which I am a copy (myself if my
+     *  ring is 0). */
+    Rotor base() {
+        return _base;
+    }
+
+    /** Precompute my forward and backward conversions at every setting, if
+     *  my alphabet is small enough and I have not already done so, so
+     *  that converting at a given setting is a single array load. */
+    synchronized void prepare() {
+        Permutation perm = permutation();
+        if (_forwardTable != null || _size > MAX_TABLE_SIZE) {
+            return;
+        }
+        int n = _size;
+        int[] forward = new int[n * n];
+        int[] backward = new int[n * n];
+        for (int s = 0; s < n; s += 1) {
+            for (int p = 0; p < n; p += 1) {
+                forward[s * n + p] = perm.wrap(perm.permute(p + s) - s);
+                backward[s * n + p] = perm.wrap(perm.invert(p + s) - s);
+            }
+        }
+        _backwardTable = backward;
+        _forwardTable = forward;
     }
 
     /** Return my name. */
@@ -33,17 +211,53 @@ class Rotor {
 
     /** Return my alphabet. */
     Alphabet alphabet() {
-        return _permutation.alphabet();
+        return _alphabet;
     }
 
-    /** Return my permutation. */
+    /** Return my permutation, building it from my cycles or wiring if
+     *  this is the first time it is needed. */
     Permutation permutation() {
-        return _permutation;
+        Permutation perm = _permutation;
+        if (perm == null) {
+            synchronized (this) {
+                perm = _permutation;
+                if (perm == null) {
+                    if (_cycles != null) {
+                        perm = new Permutation(_cycles, _alphabet);
+                    } else {
+                        int[] forward = new int[_size];
+                        _wiring.duplicate().get(forward);
+                        perm = new Permutation(forward, _alphabet);
+                    }
+                    _permutation = perm;
+                }
+            }
+        }
+        return perm;
+    }
+
+    /** Return true iff my permutation has been built. */
+    boolean built() {
+        return _permutation != null;
+    }
+
+    /** Return my table of forward conversions at every setting (see
+     *  _forwardTable), or null if prepare has not built one.  The array
+     *  is mine and must not be modified. */
+    int[] forwardTable() {
+        return _forwardTable;
+    }
+
+    /** Return my table of backward conversions at every setting (see
+     *  _backwardTable), or null if prepare has not built one.  The array
+     *  is mine and must not be modified. */
+    int[] backwardTable() {
+        return _backwardTable;
     }
 
     /** Return the size of my alphabet. */
     int size() {
-        return _permutation.size();
+        return _size;
     }
 
     /** Return true iff I have a ratchet and can move. */
@@ -63,52 +277,97 @@ class Rotor {
 
     /** Set setting() to POSN.  */
     void set(int posn) {
-        assert 0<= posn && posn < 26;
+        assert 0 <= posn && posn < size();
         _setting = posn;
     }
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
-        _setting = _permutation.alphabet().toInt(cposn);
+        _setting = _alphabet.toInt(cposn);
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int added = (p + _setting) % _permutation.alphabet().size();
-        int converted = _permutation.permute(added);
-        int subtracted = (converted - _setting) % _permutation.alphabet().size();
+        return convertForward(p, _setting);
+    }
 
-        if (subtracted < 0) {
-            subtracted += _permutation.alphabet().size();
+    /** Return the conversion of P (an integer in the range 0..size()-1)
+     *  according to my permutation when I am at setting SETTING. */
+    int convertForward(int p, int setting) {
+        if (_forwardTable != null) {
+            return _forwardTable[setting * _size + p];
         }
-
-        return subtracted;
+        return shift(permutation().permute(shift(p, setting)), -setting);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int added = (e + _setting) % _permutation.alphabet().size();
-        int converted = _permutation.invert(added);
-        int subtracted = (converted - _setting) % _permutation.alphabet().size();
+        return convertBackward(e, _setting);
+    }
 
-        if (subtracted < 0) {
-            subtracted += _permutation.alphabet().size();
+    /** Return the conversion of E (an integer in the range 0..size()-1)
+     *  according to the inverse of my permutation when I am at setting
+     *  SETTING. */
+    int convertBackward(int e, int setting) {
+        if (_backwardTable != null) {
+            return _backwardTable[setting * _size + e];
         }
+        return shift(permutation().invert(shift(e, setting)), -setting);
+    }
 
-        return subtracted;
+    /** Return P + K modulo size(), where P is in 0..size()-1 and
+     *  -size() < K < size(). */
+    private int shift(int p, int k) {
+        int r = p + k;
+        if (r >= _size) {
+            r -= _size;
+        } else if (r < 0) {
+            r += _size;
+        }
+        return r;
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
-        return _notches.indexOf(_permutation.alphabet().toChar(_setting)) != -1;
+        return atNotch(_setting);
+    }
+
+    /** Returns true iff I am at a notch when at setting SETTING. */
+    final boolean atNotch(int setting) {
+        return (_notches[setting >>> 6] & (1L << setting)) != 0;
+    }
+
+    /** Return the number of advances from setting SETTING after which I
+     *  will be at a notch (0 if I am at one at SETTING), or -1 if I never
+     *  will.  By default, I do not advance, so this is 0 or -1. */
+    int notchDistance(int setting) {
+        return atNotch(setting) ? 0 : -1;
+    }
+
+    /** Return the smallest setting >= FROM at which I am at a notch, or -1
+     *  if there is none. */
+    final int nextNotch(int from) {
+        int w = from >>> 6;
+        if (w >= _notches.length) {
+            return -1;
+        }
+        long word = _notches[w] & (-1L << from);
+        while (word == 0) {
+            w += 1;
+            if (w == _notches.length) {
+                return -1;
+            }
+            word = _notches[w];
+        }
+        return w * 64 + Long.numberOfTrailingZeros(word);
     }
 
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
-        _setting = ((_setting + 1) % _permutation.alphabet().size());
+        _setting = (_setting + 1 == _size) ? 0 : _setting + 1;
     }
 
     @Override
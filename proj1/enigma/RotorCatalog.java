@@ -0,0 +1,238 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Compiled rotor catalogs: the alphabet, slot and pawl counts, and
+ *  rotors (names, kinds, notch masks and wiring tables) of a configuration
+ *  file in a binary form that can be mapped and loaded without parsing
+ *  the configuration again.  A catalog is identified by a key, a SHA-256
+ *  hash of the configuration it was compiled from, so that a catalog is
+ *  never used for a configuration that has since changed.  Reading a
+ *  catalog does not read the rotors' wiring: each rotor keeps a view of
+ *  its table in the mapped catalog and builds its permutation from it
+ *  when first inserted, as a rotor read from a configuration file parses
+ *  its cycles only then.
+ *
+ *  All numbers are big-endian.  A catalog consists of
+ *      MAGIC and VERSION (ints),
+ *      the key (KEY_LENGTH bytes),
+ *      the alphabet kind (a byte: 1 for a ByteAlphabet, else 0),
+ *      the alphabet size N and its N code points (ints),
+ *      the numbers of slots and pawls (ints),
+ *      the number of rotors (an int),
+ *  and then for each rotor
+ *      the length of its name in bytes (an int) and the name in UTF-8,
+ *      its kind (a byte: 'M', 'N' or 'R', as in the configuration),
+ *      the number of words of its notch mask and the mask (longs, in the
+ *          format of Rotor's), and
+ *      its wiring: the index each of the N indices maps to (ints).
+ *  @author rw
+ */
+class RotorCatalog {
+
+    /** First int of every catalog ("ENIG"). */
+    static final int MAGIC = 0x454e4947;
+
+    /** Version of the format written by write. */
+    static final int VERSION = 1;
+
+    /** Length of a key in bytes. */
+    static final int KEY_LENGTH = 32;
+
+    /** Suffix of the names of catalog files. */
+    static final String SUFFIX = ".cat";
+
+    /** Return the key of a catalog compiled from the configuration whose
+     *  contents are CONFIG, read in binary mode iff BINARY (as for
+     *  Main's --binary option). */
+    static byte[] key(byte[] config, boolean binary) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((byte) (binary ? 1 : 0));
+            return digest.digest(config);
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("SHA-256 is not available");
+        }
+    }
+
+    /** Return the name of the file, in a directory of catalogs, holding
+     *  the catalog with key KEY. */
+    static String fileName(byte[] key) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : key) {
+            name.append(String.format("%02x", b));
+        }
+        return name.append(SUFFIX).toString();
+    }
+
+    /** Write a catalog with key KEY of the configuration of MACHINE to
+     *  FILE.  The catalog is written to a temporary file that then
+     *  replaces FILE, so that a process reading FILE at the same time
+     *  sees either all of it or none of it. */
+    static void write(Path file, byte[] key, Machine machine) {
+        Alphabet alphabet = machine.alphabet();
+        int n = alphabet.size();
+        List<byte[]> names = new ArrayList<>();
+        int size = 2 * 4 + KEY_LENGTH + 1 + 4 * (n + 4);
+        for (Rotor rotor : machine.allRotors()) {
+            byte[] name = rotor.name().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += 4 + name.length + 1 + 4 + 8 * words(n) + 4 * n;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(MAGIC).putInt(VERSION).put(key);
+        buf.put((byte) (alphabet instanceof ByteAlphabet ? 1 : 0));
+        buf.putInt(n);
+        for (int i = 0; i < n; i += 1) {
+            buf.putInt(alphabet.toCodePoint(i));
+        }
+        buf.putInt(machine.numRotors()).putInt(machine.numPawls());
+        buf.putInt(names.size());
+        int r = 0;
+        for (Rotor rotor : machine.allRotors()) {
+            byte[] name = names.get(r);
+            r += 1;
+            buf.putInt(name.length).put(name);
+            buf.put((byte) (rotor.reflecting() ? 'R'
+                            : rotor.rotates() ? 'M' : 'N'));
+            long[] mask = new long[words(n)];
+            for (int s = 0; s < n; s += 1) {
+                if (rotor.atNotch(s)) {
+                    mask[s >>> 6] |= 1L << s;
+                }
+            }
+            buf.putInt(mask.length);
+            for (long word : mask) {
+                buf.putLong(word);
+            }
+            for (int i = 0; i < n; i += 1) {
+                buf.putInt(rotor.permutation().permute(i));
+            }
+        }
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), "catalog",
+                                             ".tmp");
+            try {
+                Files.write(temp, buf.array());
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException excp) {
+            throw error("could not write rotor catalog %s: %s", file,
+                        excp.getMessage());
+        }
+    }
+
+    /** Return a machine configured from the catalog in FILE, mapped into
+     *  memory, or null if there is no such file or it is not a valid
+     *  catalog with key KEY. */
+    static Machine read(Path file, byte[] key) {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                              channel.size());
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("could not read rotor catalog %s: %s", file,
+                        excp.getMessage());
+        }
+        try {
+            return read(buf, key);
+        } catch (BufferUnderflowException | IllegalArgumentException
+                 | IndexOutOfBoundsException | NegativeArraySizeException
+                 | EnigmaException excp) {
+            return null;
+        }
+    }
+
+    /** Return a machine configured from the catalog in BUF, or null if it
+     *  is not a catalog with key KEY.  The rotors' wiring is left in BUF
+     *  (see the class comment), so that a catalog whose wiring has been
+     *  damaged is only detected when a damaged rotor is inserted. */
+    private static Machine read(ByteBuffer buf, byte[] key) {
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            return null;
+        }
+        byte[] stored = new byte[KEY_LENGTH];
+        buf.get(stored);
+        if (!Arrays.equals(stored, key)) {
+            return null;
+        }
+        boolean bytes = buf.get() == 1;
+        int n = buf.getInt();
+        StringBuilder chars = new StringBuilder(n);
+        for (int i = 0; i < n; i += 1) {
+            chars.appendCodePoint(buf.getInt());
+        }
+        Alphabet alphabet =
+            bytes ? new ByteAlphabet() : new Alphabet(chars.toString());
+        int numRotors = buf.getInt();
+        int pawls = buf.getInt();
+        int count = buf.getInt();
+        List<Rotor> rotors = new ArrayList<>(count);
+        for (int r = 0; r < count; r += 1) {
+            byte[] name = new byte[buf.getInt()];
+            buf.get(name);
+            char kind = (char) buf.get();
+            long[] mask = new long[buf.getInt()];
+            StringBuilder notches = new StringBuilder();
+            for (int w = 0; w < mask.length; w += 1) {
+                mask[w] = buf.getLong();
+                for (long bits = mask[w]; bits != 0; bits &= bits - 1) {
+                    notches.appendCodePoint(alphabet.toCodePoint(
+                        w * 64 + Long.numberOfTrailingZeros(bits)));
+                }
+            }
+            IntBuffer wiring = buf.slice().limit(4 * n).asIntBuffer();
+            buf.position(buf.position() + 4 * n);
+            rotors.add(rotor(new String(name, StandardCharsets.UTF_8), kind,
+                             wiring, alphabet, notches.toString()));
+        }
+        return new Machine(alphabet, numRotors, pawls, rotors);
+    }
+
+    /** Return a rotor named NAME of the kind KIND ('M', 'N' or 'R') over
+     *  ALPHABET with the wiring WIRING (see Rotor) and notches NOTCHES. */
+    private static Rotor rotor(String name, char kind, IntBuffer wiring,
+                               Alphabet alphabet, String notches) {
+        switch (kind) {
+        case 'M':
+            return new MovingRotor(name, wiring, alphabet, notches);
+        case 'N':
+            return new FixedRotor(name, wiring, alphabet, "");
+        case 'R':
+            return new Reflector(name, wiring, alphabet, "");
+        default:
+            throw error("bad rotor kind in catalog");
+        }
+    }
+
+    /** Return the number of longs in a notch mask for an alphabet of N
+     *  characters. */
+    private static int words(int n) {
+        return (n + 63) / 64;
+    }
+
+}
@@ -0,0 +1,95 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.MachineTest.LONG_MSG;
+
+/** The suite of all JUnit tests for the RotorCatalog class.
+ *  @author rw
+ */
+public class RotorCatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Directory for catalogs. */
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    /** A key for the tests. */
+    private static final byte[] KEY =
+        RotorCatalog.key("some configuration".getBytes(), false);
+
+    /** Return the catalog file for KEY. */
+    private Path file() {
+        return dir.getRoot().toPath().resolve(RotorCatalog.fileName(KEY));
+    }
+
+    @Test
+    public void checkRoundTrip() {
+        Machine original = MachineTest.navalMachine();
+        RotorCatalog.write(file(), KEY, original);
+        Machine loaded = RotorCatalog.read(file(), KEY);
+        assertNotNull(loaded);
+        assertEquals(original.numRotors(), loaded.numRotors());
+        assertEquals(original.numPawls(), loaded.numPawls());
+        assertEquals(original.allRotors().size(), loaded.allRotors().size());
+        for (String settings : new String[] {
+                "* B BETA I II III AAAA (AQ) (EP)",
+                "* C GAMMA VI VII VIII ZZYX (AB) (CD)",
+            }) {
+            original.parseSettings(settings);
+            loaded.parseSettings(settings);
+            assertEquals(original.convert(LONG_MSG), loaded.convert(LONG_MSG));
+        }
+    }
+
+    @Test
+    public void checkLazyWiring() {
+        RotorCatalog.write(file(), KEY, MachineTest.navalMachine());
+        Machine loaded = RotorCatalog.read(file(), KEY);
+        for (Rotor rotor : loaded.allRotors()) {
+            assertFalse(rotor.name(), rotor.built());
+        }
+        loaded.parseSettings("* B BETA I II III AAAA");
+        int built = 0;
+        for (Rotor rotor : loaded.allRotors()) {
+            built += rotor.built() ? 1 : 0;
+        }
+        assertEquals(loaded.numRotors(), built);
+    }
+
+    @Test
+    public void checkBytes() {
+        RotorCatalog.write(file(), KEY, MachineTest.byteMachine());
+        Machine loaded = RotorCatalog.read(file(), KEY);
+        assertTrue(loaded.alphabet() instanceof ByteAlphabet);
+        Machine original = MachineTest.byteMachine();
+        loaded.parseSettings("* R F M0 M1 M2 "
+                             + ByteAlphabet.decode("00ff7f01"));
+        for (int i = 0; i < 1000; i += 1) {
+            assertEquals(original.convert(i % 256), loaded.convert(i % 256));
+        }
+    }
+
+    @Test
+    public void checkMissingOrStale() throws IOException {
+        assertNull(RotorCatalog.read(file(), KEY));
+        byte[] other = RotorCatalog.key("some configuration".getBytes(),
+                                        true);
+        RotorCatalog.write(file(), other, MachineTest.navalMachine());
+        assertNull(RotorCatalog.read(file(), KEY));
+        Files.write(file(), new byte[] { 'E', 'N', 'I', 'G', 0 });
+        assertNull(RotorCatalog.read(file(), KEY));
+    }
+
+}
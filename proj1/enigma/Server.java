@@ -0,0 +1,241 @@
+package enigma;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import static enigma.EnigmaException.*;
+
+/** A server that runs many independent Enigma sessions at once, one per
+ *  connection to a local socket.  Each session reads input in the format
+ *  of Main's input files (settings lines starting with '*' and message
+ *  lines) until the client shuts down its output, or sends no complete
+ *  line for a time, and replies with the output Main would produce.
+ *  All sessions share one set of rotors, read once from the
+ *  configuration; each has only its own rotor settings and plugboard
+ *  (see Machine.fork).
+ *  @author rw
+ */
+class Server {
+
+    /** Default limit on the number of sessions running at once. */
+    static final int DEFAULT_MAX_SESSIONS = 1024;
+
+    /** Number of pending connections the operating system may queue while
+     *  all sessions are busy. */
+    static final int BACKLOG = 1024;
+
+    /** Size, in characters and bytes, of each session's input buffers. */
+    static final int SESSION_BUFFER_SIZE = 4096;
+
+    /** Size, in bytes, of each session's output buffer. */
+    static final int SESSION_OUTPUT_SIZE = 16384;
+
+    /** Time, in milliseconds, for which serve waits after the first of a
+     *  series of failed accepts before trying again.  The wait doubles
+     *  with each further failure, up to MAX_ACCEPT_BACKOFF. */
+    static final long MIN_ACCEPT_BACKOFF = 10;
+
+    /** Longest time, in milliseconds, for which serve waits after a
+     *  failed accept. */
+    static final long MAX_ACCEPT_BACKOFF = 1000;
+
+    /** Default time, in milliseconds, for which a session waits for a
+     *  complete line of input before treating its input as ended. */
+    static final int DEFAULT_TIMEOUT = 60_000;
+
+    /** Charset of the input and output of sessions. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Machine from which each session's machine is forked. */
+    private final Machine _template;
+
+    /** Alphabet of _template. */
+    private final Alphabet _alphabet;
+
+    /** Permits for the sessions that may run at once. */
+    private final Semaphore _permits;
+
+    /** Time, in milliseconds, for which a session waits for a line. */
+    private final int _timeout;
+
+    /** Runs the sessions. */
+    private final ExecutorService _executor = newSessionExecutor();
+
+    /** A server whose sessions fork TEMPLATE, which has alphabet ALPHABET,
+     *  and of which at most MAXSESSIONS run at once.  Further connections
+     *  wait to be accepted until a session finishes, so a flood of
+     *  clients backs up into the operating system's connection queue
+     *  rather than into memory. */
+    Server(Machine template, Alphabet alphabet, int maxSessions) {
+        this(template, alphabet, maxSessions, DEFAULT_TIMEOUT);
+    }
+
+    /** A server as above whose sessions end once they have waited TIMEOUT
+     *  milliseconds for a complete line of input, so that clients that
+     *  connect and then fall silent, or send only a byte now and then,
+     *  cannot hold on to all the sessions. */
+    Server(Machine template, Alphabet alphabet, int maxSessions,
+           int timeout) {
+        if (maxSessions < 1) {
+            throw error("must allow at least one session");
+        }
+        if (timeout < 1) {
+            throw error("session timeout must be positive");
+        }
+        _template = template;
+        _alphabet = alphabet;
+        _permits = new Semaphore(maxSessions);
+        _timeout = timeout;
+    }
+
+    /** Return an executor that runs each task in a virtual thread when the
+     *  JVM supports them, and otherwise in a pooled platform thread. */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            Method factory =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Listen on the loopback interface at PORT, serving sessions until
+     *  the process ends. */
+    void serve(int port) {
+        try {
+            serve(new ServerSocket(port, BACKLOG,
+                                   InetAddress.getLoopbackAddress()));
+        } catch (IOException excp) {
+            throw error("could not listen on port %d", port);
+        }
+    }
+
+    /** Accept connections on LISTENER and serve a session on each, until
+     *  LISTENER is closed or the serving thread is interrupted while
+     *  waiting to retry.  An accept that fails while LISTENER is open
+     *  (when the process has run out of file descriptors, for example) is
+     *  retried after a wait that grows with each consecutive failure, so
+     *  that a persistent failure does not keep a processor busy.
+     *  Sessions already running are allowed to finish. */
+    void serve(ServerSocket listener) {
+        try {
+            long backoff = 0;
+            while (true) {
+                _permits.acquireUninterruptibly();
+                Socket client;
+                try {
+                    client = listener.accept();
+                } catch (IOException excp) {
+                    _permits.release();
+                    if (listener.isClosed()) {
+                        return;
+                    }
+                    backoff = backoff == 0 ? MIN_ACCEPT_BACKOFF
+                        : Math.min(2 * backoff, MAX_ACCEPT_BACKOFF);
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException interrupt) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+                backoff = 0;
+                _executor.execute(() -> session(client));
+            }
+        } finally {
+            _executor.shutdown();
+        }
+    }
+
+    /** Run one session on CLIENT, then close it. */
+    private void session(Socket client) {
+        try (client) {
+            MessageProcessor processor =
+                new MessageProcessor(_template.fork(), _alphabet);
+            try {
+                processor.transfer(
+                    Channels.newChannel(new ClientInput(client, _timeout)),
+                    Channels.newChannel(client.getOutputStream()),
+                    CHARSET, SESSION_BUFFER_SIZE, SESSION_OUTPUT_SIZE);
+            } catch (EnigmaException excp) {
+                PrintWriter out =
+                    new PrintWriter(new OutputStreamWriter(
+                                        client.getOutputStream(), CHARSET));
+                out.printf("Error: %s%n", excp.getMessage());
+                out.flush();
+            }
+        } catch (IOException excp) {
+            /* The client went away; there is no one to report to. */
+        } finally {
+            _permits.release();
+        }
+    }
+
+    /** The input from a client, which ends when the client has sent no
+     *  complete line for a given time.  Each read waits only for what is
+     *  left of that time, so that a client cannot keep its session by
+     *  sending a byte just before each read would time out. */
+    private static class ClientInput extends FilterInputStream {
+
+        /** The input from CLIENT, which ends once TIMEOUT milliseconds
+         *  pass without a complete line. */
+        ClientInput(Socket client, int timeout) throws IOException {
+            super(client.getInputStream());
+            _client = client;
+            _timeout = timeout;
+            _deadline = System.nanoTime() + timeout * 1_000_000L;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            long left = (_deadline - System.nanoTime()) / 1_000_000L;
+            if (left <= 0) {
+                return -1;
+            }
+            _client.setSoTimeout((int) Math.min(left, _timeout));
+            int n;
+            try {
+                n = super.read(buffer, off, len);
+            } catch (SocketTimeoutException excp) {
+                return -1;
+            }
+            for (int i = off; i < off + n; i += 1) {
+                if (buffer[i] == '\n') {
+                    _deadline = System.nanoTime() + _timeout * 1_000_000L;
+                    break;
+                }
+            }
+            return n;
+        }
+
+        /** The socket of the client. */
+        private final Socket _client;
+        /** Time, in milliseconds, allowed for each line. */
+        private final int _timeout;
+        /** Value of System.nanoTime() after which the input ends, unless
+         *  a line arrives first. */
+        private long _deadline;
+    }
+
+}
@@ -0,0 +1,170 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Server class.
+ *  @author rw
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Send INPUT to the server at PORT and return its reply. */
+    private static String session(int port, String input)
+        throws IOException {
+        try (Socket socket =
+             new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.getOutputStream()
+                .write(input.getBytes(Charset.defaultCharset()));
+            socket.shutdownOutput();
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            in.transferTo(reply);
+            return reply.toString(Charset.defaultCharset());
+        }
+    }
+
+    @Test
+    public void checkConcurrentSessions() throws Exception {
+        ServerSocket listener =
+            new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Server server = new Server(MachineTest.navalMachine(), UPPER, 4);
+        Thread serving = new Thread(() -> server.serve(listener));
+        serving.start();
+
+        String[] replies = new String[40];
+        Thread[] clients = new Thread[replies.length];
+        for (int i = 0; i < clients.length; i += 1) {
+            int k = i;
+            String input = (k % 2 == 0)
+                ? "* B BETA I II III AAAA (AQ) (EP)\nHello world\n"
+                : "* B BETA I II III AAAA (AQ) (EP)\nIHBDQ QMTQZ\n\n";
+            clients[i] = new Thread(() -> {
+                    try {
+                        replies[k] = session(listener.getLocalPort(), input);
+                    } catch (IOException excp) {
+                        replies[k] = excp.toString();
+                    }
+                });
+            clients[i].start();
+        }
+        for (int i = 0; i < clients.length; i += 1) {
+            clients[i].join();
+            assertEquals(i % 2 == 0 ? String.format("IHBDQ QMTQZ%n")
+                         : String.format("HELLO WORLD%n%n"), replies[i]);
+        }
+        listener.close();
+        serving.join();
+    }
+
+    @Test
+    public void checkSilentClient() throws Exception {
+        ServerSocket listener =
+            new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Server server = new Server(MachineTest.navalMachine(), UPPER, 1, 500);
+        Thread serving = new Thread(() -> server.serve(listener));
+        serving.start();
+        String input = "* B BETA I II III AAAA (AQ) (EP)\nHello world\n";
+        try (Socket silent =
+             new Socket(InetAddress.getLoopbackAddress(),
+                        listener.getLocalPort())) {
+            silent.getOutputStream()
+                .write(input.getBytes(Charset.defaultCharset()));
+            assertEquals(String.format("IHBDQ QMTQZ%n"),
+                         session(listener.getLocalPort(), input));
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            silent.getInputStream().transferTo(reply);
+            assertEquals(String.format("IHBDQ QMTQZ%n"),
+                         reply.toString(Charset.defaultCharset()));
+        }
+        listener.close();
+        serving.join();
+    }
+
+    @Test
+    public void checkTricklingClient() throws Exception {
+        ServerSocket listener =
+            new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Server server = new Server(MachineTest.navalMachine(), UPPER, 1, 500);
+        Thread serving = new Thread(() -> server.serve(listener));
+        serving.start();
+        String input = "* B BETA I II III AAAA (AQ) (EP)\nHello world";
+        try (Socket client =
+             new Socket(InetAddress.getLoopbackAddress(),
+                        listener.getLocalPort())) {
+            client.getOutputStream()
+                .write(input.getBytes(Charset.defaultCharset()));
+            Thread trickle = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 100; i += 1) {
+                            Thread.sleep(100);
+                            client.getOutputStream().write(' ');
+                        }
+                    } catch (IOException | InterruptedException excp) {
+                        return;
+                    }
+                });
+            trickle.start();
+            long start = System.nanoTime();
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            client.getInputStream().transferTo(reply);
+            assertTrue(System.nanoTime() - start < 3_000_000_000L);
+            assertEquals(String.format("IHBDQ QMTQZ%n"),
+                         reply.toString(Charset.defaultCharset()));
+            trickle.interrupt();
+            trickle.join();
+        }
+        listener.close();
+        serving.join();
+    }
+
+    @Test
+    public void checkFailingAccept() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        ServerSocket listener =
+            new ServerSocket(0, 50, InetAddress.getLoopbackAddress()) {
+                @Override
+                public Socket accept() throws IOException {
+                    attempts.incrementAndGet();
+                    throw new IOException("too many open files");
+                }
+            };
+        Server server = new Server(MachineTest.navalMachine(), UPPER, 1);
+        Thread serving = new Thread(() -> server.serve(listener));
+        serving.start();
+        Thread.sleep(300);
+        listener.close();
+        serving.join();
+        assertTrue(attempts.toString(), attempts.get() < 20);
+    }
+
+    @Test
+    public void checkSessionError() throws Exception {
+        ServerSocket listener =
+            new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Server server = new Server(MachineTest.navalMachine(), UPPER, 1);
+        Thread serving = new Thread(() -> server.serve(listener));
+        serving.start();
+        String reply = session(listener.getLocalPort(), "Hello\n");
+        assertTrue(reply, reply.startsWith("Error:"));
+        listener.close();
+        serving.join();
+    }
+
+}
@@ -0,0 +1,81 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Tetragram statistics of a language: the base-10 logarithm of the
+ *  probability of each sequence of four characters of an alphabet, learned
+ *  from a sample text, for scoring candidate decryptions.  The score of a
+ *  text is the sum of the scores of its tetragrams, so the higher a score
+ *  the more the text resembles the sample.  The tetragram of the indices
+ *  A, B, C, D is stored at the packed code ((A * N + B) * N + C) * N + D
+ *  of a flat float[], where N is the alphabet size, so scoring a text
+ *  costs a few integer operations and one array load per character.
+ *  @author rw
+ */
+class Tetragrams {
+
+    /** Largest number of tetragrams (size of the alphabet to the fourth
+     *  power) that may be stored. */
+    static final int MAX_CODES = 1 << 24;
+
+    /** Size of the alphabet. */
+    private final int _size;
+    /** Number of tetragrams beginning with the same character: _size
+     *  cubed. */
+    private final int _tail;
+    /** _scores[C] is the score of the tetragram with packed code C. */
+    private final float[] _scores;
+
+    /** The statistics of the first LENGTH characters of TEXT, which are
+     *  indices into an alphabet of SIZE characters.  Tetragrams that do
+     *  not occur in TEXT are scored as if they had occurred a hundredth of
+     *  a time. */
+    Tetragrams(int[] text, int length, int size) {
+        if ((long) size * size * size * size > MAX_CODES) {
+            throw error("alphabet too large for tetragram statistics");
+        }
+        if (length < 4) {
+            throw error("sample text too short for tetragram statistics");
+        }
+        _size = size;
+        _tail = size * size * size;
+        int[] counts = new int[_tail * size];
+        int code = 0;
+        for (int i = 0; i < length; i += 1) {
+            code = (code % _tail) * size + text[i];
+            if (i >= 3) {
+                counts[code] += 1;
+            }
+        }
+        double total = length - 3;
+        float floor = (float) Math.log10(0.01 / total);
+        _scores = new float[counts.length];
+        for (int c = 0; c < counts.length; c += 1) {
+            _scores[c] = counts[c] == 0 ? floor
+                : (float) Math.log10(counts[c] / total);
+        }
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the score of the first LENGTH characters of TEXT, which are
+     *  indices into my alphabet. */
+    float score(int[] text, int length) {
+        float score = 0;
+        int code = 0;
+        for (int i = 0; i < length; i += 1) {
+            if (i >= 4) {
+                code -= text[i - 4] * _tail;
+            }
+            code = code * _size + text[i];
+            if (i >= 3) {
+                score += _scores[code];
+            }
+        }
+        return score;
+    }
+
+}
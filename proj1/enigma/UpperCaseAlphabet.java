@@ -23,7 +23,7 @@ class UpperCaseAlphabet extends Alphabet {
 
     /** Returns true if C is in this alphabet. */
     @Override
-    final boolean contains(char c) {
+    final boolean contains(int c) {
         return c >= 'A' && c <= 'Z';
     }
 
@@ -39,7 +39,7 @@ class UpperCaseAlphabet extends Alphabet {
 
     /** Returns the index of character C, which must be in the alphabet. */
     @Override
-    int toInt(char c) {
+    int toInt(int c) {
         if (c < 'A' || c > 'Z') {
             throw error("character not in alphabet");
         }